@@ -0,0 +1,89 @@
+package GUI;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Helper class of MarkTrackerGUI
+ *
+ * Keeps the active quests sorted by estimated time to complete (see ProgressStats.estimateMillis), soonest first.
+ * Quests without an estimate yet come last, equal estimates in the order the quests were added.
+ * Quests are kept per tracked entry: a quest tracked twice is in the order twice, each with its own estimate.
+ *
+ * The order is kept in a tree: a changed estimate moves a single quest in O(log n),
+ * nothing is ever sorted as a whole. Estimates that drift only slightly (on periodic refreshes) do not move quests at all,
+ * so the list does not shuffle around while the player is looking at it.
+ */
+class EtaOrder {
+
+    private static final double MOVE_THRESHOLD = 0.1; //relative change of an estimate that moves a quest on a refresh
+
+    private final HashMap<MarkTrackerGUI.TrackedQuest, Double> etas = new HashMap<>(); //entry ; estimate in ms, the one it is sorted on
+    private final HashMap<MarkTrackerGUI.TrackedQuest, Long> addedAt = new HashMap<>(); //entry ; sequence number of when it was added
+    private long sequence = 0;
+    private final TreeSet<MarkTrackerGUI.TrackedQuest> sorted = new TreeSet<>((a, b) -> {
+        int byEta = Double.compare(etas.get(a), etas.get(b));
+        return byEta != 0 ? byEta : Long.compare(addedAt.get(a), addedAt.get(b));
+    });
+
+    /**
+     * @param q an entry that is not in the order yet
+     * @param eta its estimate in ms, may be Double.POSITIVE_INFINITY
+     * @throws IllegalArgumentException if the entry is in the order already: its estimate is what it is sorted on
+     */
+    void add(MarkTrackerGUI.TrackedQuest q, double eta){
+        if (etas.containsKey(q)) throw new IllegalArgumentException(q.getQuest().getName() + " is in the order already!");
+        etas.put(q, eta);
+        addedAt.put(q, sequence++);
+        sorted.add(q);
+    }
+
+    void remove(MarkTrackerGUI.TrackedQuest q){
+        if (! etas.containsKey(q)) return;
+        sorted.remove(q); //before its estimate is gone, the comparator needs it
+        etas.remove(q);
+        addedAt.remove(q);
+    }
+
+    /**
+     * Change the estimate of a quest.
+     *
+     * @param q an entry in the order
+     * @param eta its new estimate in ms
+     * @param force true if something about the quest itself changed: always use the new estimate.
+     *              false for a periodic refresh: ignore changes of less than MOVE_THRESHOLD
+     * @return whether the quest was repositioned (it may end up at the same index)
+     */
+    boolean update(MarkTrackerGUI.TrackedQuest q, double eta, boolean force){
+        double old = etas.get(q);
+        if (old == eta) return false;
+        if (! force && ! Double.isInfinite(old) && ! Double.isInfinite(eta) && Math.abs(eta - old) <= MOVE_THRESHOLD * old){
+            return false;
+        }
+        sorted.remove(q); //before its estimate changes, the comparator needs the one it is sorted on
+        etas.put(q, eta);
+        sorted.add(q);
+        return true;
+    }
+
+    /**
+     * @return the estimate a quest is sorted on
+     */
+    double getEta(MarkTrackerGUI.TrackedQuest q){
+        return etas.get(q);
+    }
+
+    /**
+     * @return the position of a quest in the order, 0 for the soonest
+     */
+    int indexOf(MarkTrackerGUI.TrackedQuest q){
+        return sorted.headSet(q).size();
+    }
+
+    /**
+     * @return all entries, soonest first
+     */
+    MarkTrackerGUI.TrackedQuest[] inOrder(){
+        return sorted.toArray(new MarkTrackerGUI.TrackedQuest[]{});
+    }
+}
@@ -0,0 +1,82 @@
+package GUI;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.LinkedHashSet;
+
+/**
+ * Coalesces layout and repaint requests of a window into at most one update per event dispatch.
+ *
+ * Rather than calling pack() / revalidate() / repaint() right after every change,
+ * code marks what changed (requestPack, invalidate) and the scheduler performs the update once,
+ * on the Event Dispatch Thread, after all changes queued before it have been made.
+ * Adding 50 quests in a row then costs a single layout of the window instead of 50.
+ *
+ * Requests may be made from any thread.
+ */
+class LayoutScheduler {
+
+    private final Window window;
+    private final LinkedHashSet<JComponent> dirty = new LinkedHashSet<>(); //components to revalidate and repaint
+    private boolean packRequested = false;
+    private boolean scheduled = false; //whether a flush is queued on the EDT
+
+    /**
+     * @param window the window to pack on requestPack
+     */
+    LayoutScheduler(Window window){
+        this.window = window;
+    }
+
+    /**
+     * Request the window to be packed (and repainted) on the next flush.
+     */
+    synchronized void requestPack(){
+        packRequested = true;
+        schedule();
+    }
+
+    /**
+     * Request a component to be revalidated and repainted on the next flush.
+     * Not needed if the window is packed anyway, packing lays out every component.
+     *
+     * @param c the component that changed
+     */
+    synchronized void invalidate(JComponent c){
+        dirty.add(c);
+        schedule();
+    }
+
+    //queue a flush, unless one is queued already
+    private void schedule(){
+        if (! scheduled){
+            scheduled = true;
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    /**
+     * Perform all requested updates. Runs on the EDT.
+     */
+    private void flush(){
+        JComponent[] toValidate;
+        boolean pack;
+        synchronized (this){
+            toValidate = dirty.toArray(new JComponent[]{});
+            pack = packRequested;
+            dirty.clear();
+            packRequested = false;
+            scheduled = false; //requests made during this flush queue the next one
+        }
+
+        if (pack){
+            window.pack(); //lays out the whole window, dirty components included
+            window.repaint();
+        } else {
+            for (JComponent c : toValidate){
+                c.revalidate();
+                c.repaint();
+            }
+        }
+    }
+}
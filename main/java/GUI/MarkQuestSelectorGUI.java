@@ -1,16 +1,26 @@
 package GUI;
 
+import MarkData.CompletionTrie;
 import MarkData.MarkQuest;
 import MarkData.MarkRequirement;
 import MarkData.QuestLibrary;
+import MarkData.QuestSimilarity;
 import ResourceLoader.ResourceManager;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.awt.event.*;
-import java.util.ArrayList;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 public class MarkQuestSelectorGUI {
     private JPanel mainPanel;
@@ -25,10 +35,25 @@ public class MarkQuestSelectorGUI {
     private JCheckBox excludeScoutCheckBox;
 
     private JFrame thisFrame;
-    private QuestLibrary questLibrary;
     private ResourceManager resourceManager;
-    private MarkQuest[] eligibleQuests;
     private SearchManager searchManager;
+    private SearchCursor searchCursor; //results of the current search, drawn page by page. Only used on searchExecutor
+    private boolean searchHasMore = false; //whether searchCursor may have more pages, as of its last page
+    private boolean fetchingPage = false; //whether the next page of searchCursor is being fetched, see drawNextPage
+    private String searchText = ""; //text of the current search
+    private LayoutScheduler layoutScheduler; //packs the frame at most once per batch of changes
+    private JPopupMenu suggestionPopup; //completions of the word being typed, see updateSuggestions
+    private JList<CompletionTrie.Completion> suggestionList;
+    private boolean acceptingSuggestion = false; //true while a suggestion is put into the search box, see acceptSuggestion
+    private final AtomicInteger searchGeneration = new AtomicInteger(); //increased on every search, to drop outdated results
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "QuestSearch");
+        t.setDaemon(true); //do not keep the program running after the GUI is closed
+        return t;
+    });
+
+    private static final int PAGE_SIZE = 15; //quests drawn per page, first page should fill the scroll pane
+    private static final int PAGE_FETCH_MARGIN = 200; //px from the bottom of the scroll pane at which the next page is drawn
 
     private boolean includeActiveQuests = false;
     private boolean excludeScoutQuests = true;
@@ -43,10 +68,9 @@ public class MarkQuestSelectorGUI {
     MarkQuestSelectorGUI(JFrame thisFrame){
         //global variable declarations
         this.thisFrame = thisFrame;
-        questLibrary = QuestLibrary.getInstance();
         resourceManager = ResourceManager.getInstance();
         searchManager = new SearchManager();
-        eligibleQuests = questLibrary.sortQuestByTier(questLibrary.getAllQuests(), false); //descending sort: epic quests > standard quests > (...)
+        layoutScheduler = new LayoutScheduler(thisFrame);
 
         //UI element declarations
         scrollPanelViewport.setLayout(new BoxLayout(scrollPanelViewport, BoxLayout.Y_AXIS)); //vertical alignment on quests
@@ -56,15 +80,35 @@ public class MarkQuestSelectorGUI {
         availableQuestsPane.getVerticalScrollBar().setUnitIncrement(15); //scroll speed
         availableQuestsPane.setPreferredSize(new Dimension(500, 400));
         availableQuestsPane.setViewportView(scrollPanelViewport);
-
+        availableQuestsPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            //draw the next page of results when scrolling close to the bottom
+            JScrollBar bar = availableQuestsPane.getVerticalScrollBar();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - PAGE_FETCH_MARGIN){
+                drawNextPage();
+            }
+        });
 
         //actionlistener declarations
-        // For each key press, execute a search on the available quests for that term.
-        questSearchBox.addKeyListener(new KeyAdapter() {
+        // For each change to the search text, execute a search on the available quests for that term.
+        // (a DocumentListener runs after the text changed, on the EDT)
+        questSearchBox.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                if (acceptingSuggestion) return; //searched once the suggestion is in
+                searchQuests(questSearchBox.getText());
+                updateSuggestions();
+            }
+
             @Override
-            public void keyTyped(KeyEvent e) {
-                super.keyTyped(e);
-                new Thread(() -> searchQuests(questSearchBox.getText())).start();
+            public void removeUpdate(DocumentEvent e) {
+                if (acceptingSuggestion) return;
+                searchQuests(questSearchBox.getText());
+                updateSuggestions();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                //attribute changes only, text is the same
             }
         });
         doneButton.addActionListener(e -> { //invisible button currently (just close it 4hed)
@@ -83,6 +127,8 @@ public class MarkQuestSelectorGUI {
             refreshQuests();
         });
 
+        initSuggestions();
+
         //finalize by drawing current quests.
         refreshQuests();
     }
@@ -92,18 +138,8 @@ public class MarkQuestSelectorGUI {
      * @param text the text to search for matches with
      */
     private void searchQuests(String text) {
-
-        if (! text.trim().isEmpty()){
-            eligibleQuests = searchManager.getEligibleQuests(text, !exclude.isSelected());
-        } else {
-            if (exclude.isSelected()){
-                //exclusion search mode on empty string, return empty list
-                eligibleQuests = new MarkQuest[]{};
-            } else {
-                //inclusive search mode on empty string, return all options
-                eligibleQuests = questLibrary.sortQuestByTier(questLibrary.getAllQuests(), false);
-            }
-        }
+        //empty text: inclusive search shows all quests, exclusive search shows none (handled by SearchManager)
+        searchText = text;
         refreshQuests();
 
         if(text.toLowerCase().equals("mrunibro")){
@@ -112,6 +148,111 @@ public class MarkQuestSelectorGUI {
         }
     }
 
+    /**
+     * Set up the dropdown of completions below the search box.
+     *
+     * It never takes focus from the search box: up/down pick a completion, enter accepts it, escape closes the dropdown.
+     */
+    private void initSuggestions(){
+        suggestionList = new JList<>();
+        suggestionList.setFocusable(false);
+        suggestionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        suggestionList.setCellRenderer(new DefaultListCellRenderer(){
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                CompletionTrie.Completion c = (CompletionTrie.Completion) value;
+                return super.getListCellRendererComponent(list, c.getText() + "  (" + c.getKind() + ")", index, isSelected, cellHasFocus);
+            }
+        });
+        suggestionList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = suggestionList.locationToIndex(e.getPoint());
+                if (index != -1) acceptSuggestion(suggestionList.getModel().getElementAt(index));
+            }
+        });
+
+        suggestionPopup = new JPopupMenu();
+        suggestionPopup.setFocusable(false);
+        suggestionPopup.add(suggestionList);
+
+        bindSuggestionKey("DOWN", "suggestionDown", () -> moveSuggestion(1));
+        bindSuggestionKey("UP", "suggestionUp", () -> moveSuggestion(-1));
+        bindSuggestionKey("ENTER", "suggestionAccept", () -> {
+            if (suggestionList.getSelectedValue() != null) acceptSuggestion(suggestionList.getSelectedValue());
+        });
+        bindSuggestionKey("ESCAPE", "suggestionClose", () -> suggestionPopup.setVisible(false));
+    }
+
+    //bind a key of the search box, doing something only while the dropdown is open
+    private void bindSuggestionKey(String key, String name, Runnable action){
+        questSearchBox.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(key), name);
+        questSearchBox.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (suggestionPopup.isVisible()) action.run();
+            }
+        });
+    }
+
+    private void moveSuggestion(int delta){
+        int size = suggestionList.getModel().getSize();
+        int index = Math.floorMod(suggestionList.getSelectedIndex() + delta, size);
+        suggestionList.setSelectedIndex(index);
+    }
+
+    /**
+     * Show the completions of the last word in the search box, from the trie of the current library.
+     * Not for structured queries, where a word may be a field or an operator.
+     */
+    private void updateSuggestions(){
+        String text = questSearchBox.getText();
+        String word = text.substring(text.lastIndexOf(' ') + 1);
+        CompletionTrie.Completion[] completions = word.isEmpty() || searchManager.isStructuredQuery(text)
+                ? new CompletionTrie.Completion[]{}
+                : QuestLibrary.getInstance().getCompletions().complete(word);
+
+        boolean onlyItself = completions.length == 1 && completions[0].getText().equals(SearchManager.normalize(word));
+        if (completions.length == 0 || onlyItself || ! questSearchBox.isShowing()){
+            suggestionPopup.setVisible(false);
+            return;
+        }
+
+        suggestionList.setListData(completions);
+        suggestionList.setSelectedIndex(0);
+        suggestionList.setVisibleRowCount(completions.length);
+        suggestionPopup.pack();
+        if (! suggestionPopup.isVisible()){
+            suggestionPopup.show(questSearchBox, 0, questSearchBox.getHeight());
+        }
+    }
+
+    /**
+     * Replace the last word in the search box by a completion, and search once for the result.
+     * @param completion the completion picked
+     */
+    private void acceptSuggestion(CompletionTrie.Completion completion){
+        String text = questSearchBox.getText();
+        String completed = text.substring(0, text.lastIndexOf(' ') + 1) + completion.getText();
+
+        acceptingSuggestion = true; //setText removes, then inserts: would search twice
+        try {
+            questSearchBox.setText(completed);
+        } finally {
+            acceptingSuggestion = false;
+        }
+        suggestionPopup.setVisible(false);
+        searchQuests(completed);
+    }
+
+    /**
+     * Type a search into the search box, as if the user did.
+     * @param text the text to search for
+     */
+    void setSearchText(String text) {
+        questSearchBox.setText(text); //the DocumentListener starts the search
+    }
+
     /**
      * Generates textual information of a MarkQuest
      *
@@ -137,40 +278,21 @@ public class MarkQuestSelectorGUI {
     }
 
     /**
-     * Generate a JPanel holding up to 8 marks as pictures. Interactability optional
+     * Generate a MarkStrip showing the marks as pictures, 8 in the usual grid. Interactability optional
      *
      * @param reqs The Mark Requirements that form this Quest
-     * @param totalAmount the sum of all individual MarkRequirement amounts
      * @param interactiveMarks whether or not to make marks interactive.
-     * @return JPanel holding marks as icons
+     * @return MarkStrip painting the marks
      */
-    JPanel createMarkPanel(MarkRequirement[] reqs, int totalAmount, boolean interactiveMarks) {
-        JPanel toReturn = new JPanel();
-        toReturn.setLayout(new GridLayout(2, 4));
-
-        int requiredPadding = 8 - totalAmount; //adding padding to always fill gridlayout; looks better
-        for (MarkRequirement req : reqs){
-            //images
-            ImageIcon icon = new ImageIcon(resourceManager.getSprite(req.getMarkType()));
-            for (int i = 0; i < req.getAmount(); i++){
-                JLabel l = new JLabel();
-                l.setIcon(icon);
-                l.setToolTipText(req.getMarkType());
-
-                if (interactiveMarks){ //this is the MarkTrackerGUI : label is clickable for marking as completed.
-                    addMarkToggle(l, icon);
-                }
-
-                toReturn.add(l);
-            }
-        }
-        //padding on right side
-        for (int i = 0; i < requiredPadding; i++){
-            JLabel l = new JLabel();
-            l.setBorder(new EmptyBorder(20, 20, 20, 20)); //invis labels of 40x40 to keep gridLayout same size when manipulating marks
-            toReturn.add(l);
+    MarkStrip createMarkPanel(MarkRequirement[] reqs, boolean interactiveMarks) {
+        MarkStrip toReturn = new MarkStrip(reqs, interactiveMarks);
+
+        if (interactiveMarks){ //this is the MarkTrackerGUI : marks are clickable for marking as completed.
+            toReturn.setToggleListener((dungeon, done) -> {
+                markTracker.markToggled(dungeon, done); //keep count of marks still needed
+                markTracker.updateRemoveButton(toReturn); //change 'remove' button to 'complete' if all marks are set to X, and vice-versa
+            });
         }
-
         return toReturn;
     }
 
@@ -186,43 +308,44 @@ public class MarkQuestSelectorGUI {
     }
 
     /**
-     * Adds a mark toggle, the Mark JLabel can be marked as complete by clicking it.
-     * This can be undone by clicking it again.
+     * Draws the next page of the current search results below the ones already drawn.
      *
-     * Moved to external method for readability
-     *
-     * When 'undone' it restores to the supplied icon.
-     *
-     * @param l the JLabel to add an actionlistener to
-     * @param icon the ImageIcon to restore the JLabel
+     * The page is ranked on searchExecutor (see SearchCursor.nextPage), then drawn on the EDT;
+     * dropped if another search was started meanwhile. Does nothing if all results have been drawn,
+     * or the next page is being fetched already.
      */
-    private void addMarkToggle(JLabel l, ImageIcon icon){
-        l.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                super.mouseClicked(e);
-                if (l.getText().equals("X")){
-                    //restore icon
-                    l.setBorder(new EmptyBorder(0,0,0,0)); //reset border
-                    l.setText("");
-                    l.setIcon(icon);
-                } else {
-                    l.setIcon(null);
-                    l.setText("X");
-                    l.setBorder(new EmptyBorder(0, 10, 0, 10)); //lessen shrink of GridLayout if all marks are marked as 'X' (& invis marks of 40x40  were not present, e.g. 8 mark quest)
-                    Font f = l.getFont();
-                    l.setFont(new Font(f.getName(), Font.BOLD, 26));
-                }
-                markTracker.updateRemoveButton(l.getParent()); //change 'remove' button to 'complete' if all marks are set to X, and vice-versa
-            }
+    private void drawNextPage(){
+        if (searchCursor == null || ! searchHasMore || fetchingPage) return;
+
+        fetchingPage = true;
+        final SearchCursor cursor = searchCursor;
+        final int generation = searchGeneration.get();
+        searchExecutor.execute(() -> {
+            MarkQuest[] page = cursor.nextPage(PAGE_SIZE);
+            boolean more = cursor.hasMore();
+            SwingUtilities.invokeLater(() -> {
+                if (generation != searchGeneration.get() || cursor != searchCursor) return; //a newer search replaced it
+
+                fetchingPage = false;
+                searchHasMore = more;
+                if (page.length == 0) return;
+                drawQuests(page);
+                layoutScheduler.invalidate(scrollPanelViewport);
+            });
         });
     }
 
     /**
-     * Draws all elligible Quests using scrollPanelViewport variable.
+     * Draws elligible Quests using scrollPanelViewport variable, below the quests already drawn.
      * These are drawn into the availableQuestsPane
      */
     private void drawQuests(MarkQuest[] eligibleQuests){
+        for (Component c : scrollPanelViewport.getComponents()){
+            if (c.getName() != null && c.getName().equals("padding")){
+                scrollPanelViewport.remove(c);
+            }
+        }
+
         for (MarkQuest q : eligibleQuests){
             JPanel questPane = new JPanel(); //(vertically aligned) panel containing the quest info
             questPane.setLayout(new GridLayout());
@@ -235,16 +358,20 @@ public class MarkQuestSelectorGUI {
             JPanel markAndButtonPane = new JPanel();
             markAndButtonPane.setLayout(new FlowLayout()); //for tight padding between marks and addBtn
 
-            JPanel questReqDisplay = createMarkPanel(q.getCompletionReq(), q.getTotalMarkAmount(), false);
+            MarkStrip questReqDisplay = createMarkPanel(q.getCompletionReq(), false);
             JButton addQuestButton = new JButton("Add");
             addQuestButton.setToolTipText("Add this quest to the list of currently tracking quests!");
             addQuestButton.addActionListener(e -> {
                 addQuest(q);
                 refreshQuests();
             }); //add quest to tracking list if clicked
+            JButton similarButton = new JButton("Similar");
+            similarButton.setToolTipText("Show quests needing marks of the same dungeons, to plan runs that count for several quests!");
+            similarButton.addActionListener(e -> showSimilarQuests(q));
 
             markAndButtonPane.add(questReqDisplay);
             markAndButtonPane.add(addQuestButton);
+            markAndButtonPane.add(similarButton);
 
             questPane.add(textPane);
             questPane.add(markAndButtonPane);
@@ -256,58 +383,102 @@ public class MarkQuestSelectorGUI {
         for (int i = 0; i < 2; i++){
             JPanel jp = new JPanel();
             jp.setBorder(new EmptyBorder(0,0,100,0));
+            jp.setName("padding"); //name it to identify for removal when the next page is drawn
             scrollPanelViewport.add(jp);
         }
     }
 
     /**
      * refresh selectable quests in frame
+     *
+     * Restarts the current search and draws only its first page, further pages are drawn when scrolled to.
+     * Must be called on the EDT. The search itself runs on searchExecutor, the results are drawn back on the EDT;
+     * results of a search are dropped if another search was started before they were drawn.
      */
     void refreshQuests() {
-        removeQuests();
-
-        MarkQuest[] toShow = eligibleQuests;
-
-        if (! includeActiveQuests) toShow = excludeActiveQuests(toShow);
-        if (excludeScoutQuests) toShow = excludeScoutQuests(toShow);
-
-        drawQuests(toShow);
+        //snapshot of currently tracking quests, refreshQuests is called again whenever it changes
+        HashSet<MarkQuest> active = new HashSet<>();
+        if (markTracker != null){ //null on initialization
+            active.addAll(Arrays.asList(markTracker.getActiveQuests()));
+        }
+        final boolean showActive = includeActiveQuests;
+        final boolean hideScout = excludeScoutQuests;
+        final String text = searchText;
+        final boolean include = !exclude.isSelected();
+        final int generation = searchGeneration.incrementAndGet();
+
+        Predicate<MarkQuest> displayFilter = q ->
+                (showActive || ! active.contains(q)) && (! hideScout || ! q.getType().equals("Scout"));
+
+        //search in the background, so typing stays responsive. Only the latest search is drawn
+        searchExecutor.execute(() -> {
+            SearchCursor cursor = null;
+            MarkQuest[] firstPage = new MarkQuest[]{};
+            String toolTip = null;
+            if (searchManager.isStructuredQuery(text)){
+                try {
+                    QueryPlan plan = searchManager.planQuery(text, include);
+                    cursor = searchManager.openCursor(plan, displayFilter);
+                    firstPage = cursor.nextPage(PAGE_SIZE);
+                    toolTip = "<html><pre>" + escapeHtml(plan.explain()) + "</pre></html>";
+                } catch (IllegalArgumentException e){ //invalid query: show why, and no results
+                    toolTip = e.getMessage();
+                }
+            } else {
+                cursor = searchManager.openCursor(text, include, displayFilter);
+                firstPage = cursor.nextPage(PAGE_SIZE);
+            }
 
-        thisFrame.pack();
-        thisFrame.repaint();
+            final SearchCursor newCursor = cursor;
+            final boolean more = cursor != null && cursor.hasMore();
+            final MarkQuest[] page = firstPage;
+            final String newToolTip = toolTip;
+            SwingUtilities.invokeLater(() -> { //the cursor is only used on the EDT from here on
+                if (generation != searchGeneration.get()) return; //a newer search was started meanwhile
+
+                removeQuests();
+                searchCursor = newCursor;
+                searchHasMore = more;
+                fetchingPage = false; //a fetch of the replaced cursor is dropped
+                questSearchBox.setToolTipText(newToolTip);
+                drawQuests(page);
+                layoutScheduler.requestPack(); //typing fast refreshes many times before the frame is laid out once
+                if (! text.isEmpty()) StartupBenchmark.reached(StartupBenchmark.FIRST_SEARCH);
+            });
+        });
     }
 
     /**
-     * creates sub-array from quests eligible for display by removing currently tracking quests
-     * @param eligibleQuests list of eligible quests to remove actives from.
-     * @return the difference of the set of eligible quests and set of tracking quests
+     * Replace the search results by the quests most similar to a quest (see QuestLibrary.getSimilarQuests).
+     *
+     * Must be called on the EDT. Typing in the search box goes back to searching.
+     *
+     * @param q the quest to find similar quests of
      */
-    private MarkQuest[] excludeActiveQuests(MarkQuest[] eligibleQuests) {
-        if (markTracker == null){ //true on initialization
-            return eligibleQuests;
-        }
-        MarkQuest[] active = markTracker.getActiveQuests();
-        //from eligible remove active
-        ArrayList<MarkQuest> eligible = new ArrayList<>(Arrays.asList(eligibleQuests));
-        eligible.removeAll(Arrays.asList(active));
-
-        return eligible.toArray(new MarkQuest[]{});
+    private void showSimilarQuests(MarkQuest q){
+        searchGeneration.incrementAndGet(); //drop results of a search still running
+        QuestLibrary library = QuestLibrary.getInstance();
+        if (! library.contains(q)) return; //library reloaded meanwhile, q is gone
+
+        HashSet<MarkQuest> active = new HashSet<>();
+        if (markTracker != null) active.addAll(Arrays.asList(markTracker.getActiveQuests()));
+        MarkQuest[] similar = Arrays.stream(library.getSimilarQuests(q, QuestSimilarity.MAX_RESULTS))
+                .filter(s -> (includeActiveQuests || ! active.contains(s)) && (! excludeScoutQuests || ! s.getType().equals("Scout")))
+                .limit(PAGE_SIZE)
+                .toArray(MarkQuest[]::new);
 
+        removeQuests();
+        searchCursor = null; //nothing more to scroll to
+        searchHasMore = false;
+        fetchingPage = false;
+        questSearchBox.setToolTipText("Showing quests similar to " + q.getName());
+        drawQuests(similar);
+        layoutScheduler.requestPack();
+        availableQuestsPane.getVerticalScrollBar().setValue(0);
     }
 
-    /**
-     * creates sub-array from quests eligible for display by removing Scout type quests
-     * @param eligibleQuests array of quests eligible to be displayed
-     * @return sub-array excluding scout quests
-     */
-    private MarkQuest[] excludeScoutQuests(MarkQuest[] eligibleQuests){
-        ArrayList<MarkQuest> toReturn = new ArrayList<>(Arrays.asList(eligibleQuests));
-        for (MarkQuest m : eligibleQuests){
-            if (m.getType().equals("Scout")){
-                toReturn.remove(m);
-            }
-        }
-        return toReturn.toArray(new MarkQuest[]{});
+    private static String escapeHtml(String text){
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
     }
 
     /**
@@ -338,5 +509,6 @@ public class MarkQuestSelectorGUI {
             throw new UnsupportedOperationException("Changing reference to markTracker after initialization not allowed!");
         }
         markTracker = markTrackerGUI;
+        searchManager.setProgressBoost(markTracker.getProgressBoost()); //rank quests helping with tracked ones higher
     }
 }
@@ -0,0 +1,195 @@
+package GUI;
+
+import MarkData.MarkRequirement;
+import ResourceLoader.ResourceManager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Displays the marks of a quest as a grid of 2 rows of 4 sprites, painted directly.
+ * Quests requiring more than 8 marks (e.g. from an extra catalog source, see CatalogMerger) get as many more rows as they need.
+ *
+ * A single component per quest, rather than a JLabel per mark plus padding labels:
+ * sprites are drawn in paintComponent, clicks and tooltips are resolved to a mark by the cell under the mouse.
+ *
+ * Which marks are done is kept in a bit field, bit i set means mark i is done (shown as an X).
+ */
+class MarkStrip extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int COLUMNS = 4;
+    private static final int MIN_ROWS = 2; //the usual quest of up to 8 marks
+    private static final int CELL_SIZE = 40; //size of a sprite, see ResourceManager
+    private static final Font DONE_FONT = new Font(Font.DIALOG, Font.BOLD, 26);
+
+    private final String[] dungeons; //dungeon of each mark, in requirement order
+    private final transient Image[] sprites; //sprite of each mark, from renderer
+    private final int rows; //rows of the grid
+    private transient SpriteRenderer renderer = null; //renderer the sprites are from, replaced when the display changes
+    private final BitSet done = new BitSet(); //bit i set if mark i is done
+
+    private transient BiConsumer<String, Boolean> toggleListener = null; //notified with (dungeon, done) on every toggle
+
+    /**
+     * @param reqs the MarkRequirements of the quest
+     * @param interactive whether marks can be clicked to toggle them done
+     */
+    MarkStrip(MarkRequirement[] reqs, boolean interactive){
+        int total = 0;
+        for (MarkRequirement req : reqs){
+            total += req.getAmount();
+        }
+
+        dungeons = new String[total];
+        sprites = new Image[total];
+        int i = 0;
+        for (MarkRequirement req : reqs){
+            ResourceManager.getInstance().assertValidDungeon(req.getMarkType());
+            for (int k = 0; k < req.getAmount(); k++){
+                dungeons[i] = req.getMarkType();
+                i++;
+            }
+        }
+
+        rows = Math.max(MIN_ROWS, (total + COLUMNS - 1) / COLUMNS);
+        Dimension size = new Dimension(COLUMNS * CELL_SIZE, rows * CELL_SIZE); //always the full grid, looks better
+        setPreferredSize(size);
+        setMinimumSize(size);
+        setMaximumSize(size);
+        setOpaque(false);
+        ToolTipManager.sharedInstance().registerComponent(this); //tooltips are per mark, see getToolTipText(MouseEvent)
+
+        if (interactive){ //this is the MarkTrackerGUI : marks are clickable for marking as completed.
+            addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    int mark = markAt(e.getPoint());
+                    if (mark != -1) setDone(mark, ! isDone(mark));
+                }
+            });
+        }
+    }
+
+    /**
+     * @param toggleListener notified with (dungeon, done) every time a mark is toggled
+     */
+    void setToggleListener(BiConsumer<String, Boolean> toggleListener){
+        this.toggleListener = toggleListener;
+    }
+
+    boolean isDone(int mark){
+        return done.get(mark);
+    }
+
+    /**
+     * @return whether every mark is done
+     */
+    boolean isAllDone(){
+        return done.cardinality() == dungeons.length;
+    }
+
+    /**
+     * Toggle a mark to done or not done, notifying the toggle listener if it changed.
+     *
+     * @param mark index of the mark
+     * @param isDone whether the mark is done
+     */
+    void setDone(int mark, boolean isDone){
+        if (isDone(mark) == isDone) return;
+
+        done.flip(mark);
+        repaint(cellBounds(mark));
+        if (toggleListener != null){
+            toggleListener.accept(dungeons[mark], isDone);
+        }
+    }
+
+    /**
+     * Mark the first mark of a dungeon that is not done yet as done.
+     *
+     * @param dungeon the dungeon
+     * @return false if there was no such mark
+     */
+    boolean markDone(String dungeon){
+        for (int i = 0; i < dungeons.length; i++){
+            if (! isDone(i) && dungeons[i].equals(dungeon)){
+                setDone(i, true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return mapping of dungeon to amount of marks not done yet, in requirement order
+     */
+    Map<String, Integer> getOutstanding(){
+        LinkedHashMap<String, Integer> outstanding = new LinkedHashMap<>();
+        for (int i = 0; i < dungeons.length; i++){
+            if (! isDone(i)) outstanding.merge(dungeons[i], 1, Integer::sum);
+        }
+        return outstanding;
+    }
+
+    /**
+     * @return index of the mark painted at this point, -1 if none
+     */
+    private int markAt(Point p){
+        if (p.x < 0 || p.y < 0) return -1;
+        int column = p.x / CELL_SIZE;
+        int row = p.y / CELL_SIZE;
+        if (column >= COLUMNS || row >= rows) return -1;
+
+        int mark = row * COLUMNS + column;
+        return mark < dungeons.length ? mark : -1;
+    }
+
+    private Rectangle cellBounds(int mark){
+        return new Rectangle((mark % COLUMNS) * CELL_SIZE, (mark / COLUMNS) * CELL_SIZE, CELL_SIZE, CELL_SIZE);
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        int mark = markAt(e.getPoint());
+        return mark == -1 ? null : dungeons[mark];
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+
+        //sprites compatible with the display painted on, fetched again only when that changes
+        SpriteRenderer current = SpriteRenderer.forConfiguration(getGraphicsConfiguration());
+        if (current != renderer){
+            renderer = current;
+            for (int i = 0; i < dungeons.length; i++){
+                sprites[i] = renderer.getSprite(dungeons[i]);
+            }
+        }
+
+        Rectangle clip = g.getClipBounds();
+        g.setFont(DONE_FONT);
+        FontMetrics fm = g.getFontMetrics();
+        for (int i = 0; i < dungeons.length; i++){
+            Rectangle cell = cellBounds(i);
+            if (clip != null && ! clip.intersects(cell)) continue; //only repaint what changed
+
+            if (isDone(i)){
+                g.setColor(getForeground());
+                int x = cell.x + (CELL_SIZE - fm.stringWidth("X")) / 2;
+                int y = cell.y + (CELL_SIZE - fm.getHeight()) / 2 + fm.getAscent();
+                g.drawString("X", x, y);
+            } else {
+                g.drawImage(sprites[i], cell.x, cell.y, null);
+            }
+        }
+    }
+}
@@ -1,12 +1,31 @@
 package GUI;
 
+import MarkData.Completability;
+import MarkData.MarkDemand;
 import MarkData.MarkQuest;
-import javafx.util.Pair;
+import MarkData.MarkRequirement;
+import MarkData.ProgressStats;
+import MarkData.QuestLibrary;
+import MarkData.RoutePlan;
+import MarkData.RoutePlanner;
+import ResourceLoader.CatalogMerger;
+import ResourceLoader.DungeonLogImporter;
+import ResourceLoader.DungeonLogParser;
+import ResourceLoader.ResourceManager;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * GUI for Mark Tracker program
@@ -28,17 +47,149 @@ public class MarkTrackerGUI {
     private JLabel activeQuestCount;
     private JScrollPane activeQuestsScrollPane;
     private JPanel questScrollPaneViewport;
+    private JButton planRunsButton;
+    private JPanel markDemandPanel;
+    private JButton clearedDungeonButton;
+    private JButton importLogButton;
+    private JButton inventoryButton;
+    private JCheckBox sortByEtaCheckBox;
 
     private static JFrame frame;
     private static JFrame questFrame;
     private static MarkQuestSelectorGUI questSelector;
 
-    private ArrayList<Pair<MarkQuest,JPanel>> activeQuests;
+    private ArrayList<TrackedQuest> activeQuests; //in the order they were added, the same quest may be tracked more than once
+    private MarkDemand markDemand; //marks still needed per dungeon over all active quests
+    private HashMap<String, JLabel> demandLabels; //dungeon ; label in markDemandPanel showing its outstanding marks
+    private ProgressBoost progressBoost; //same outstanding marks as markDemand, for ranking search results
+    private HashMap<String, ArrayList<TrackedQuest>> activeByDungeon; //dungeon ; active quests requiring it
+    private LayoutScheduler layoutScheduler; //packs the frame at most once per batch of changes
+    private ProgressStats progressStats; //pace of the player per dungeon, from the marks toggled
+    private EtaOrder etaOrder; //active quests by estimated time to complete
+    private boolean applyingPastClears = false; //true while marks done in the past are applied: not part of the pace, see clearedDungeons
+    private volatile int trackingVersion = 0; //increased on every change to the active quests or their marks, see TrackerServer
+
+    private static final int PADDING_PANELS = 2; //invisible panels kept below the active quests
+
+    private static final long PLAN_TIME_BUDGET = 2000; //ms the route planner may search for
+    private static final long LOG_POLL_INTERVAL = 1000; //ms between checks for new lines in a followed game log
+    private static final int ETA_REFRESH_INTERVAL = 30 * 1000; //ms between estimate updates while no marks are toggled
+    private static final long CATALOG_POLL_INTERVAL = 30 * 1000; //ms between checks for changed catalog sources
+
+    private Closeable logTail = null; //the game log being followed, null if none
+    private Completability.Inventory inventory = null; //marks the player holds, see showInventory. null until first shown
+    private QuestLibrary inventoryLibrary = null; //library the inventory was made for
+
+    /**
+     * A quest on the tracking list, with the panel and the (clickable) marks shown for it.
+     *
+     * The same quest can be tracked more than once: every entry has marks of its own.
+     */
+    static class TrackedQuest {
+        private MarkQuest quest; //of the current library, see catalogChanged
+        private final JPanel panel; //in questScrollPaneViewport
+        private final MarkStrip marks;
+
+        TrackedQuest(MarkQuest quest, JPanel panel, MarkStrip marks){
+            this.quest = quest;
+            this.panel = panel;
+            this.marks = marks;
+        }
+
+        MarkQuest getQuest() {
+            return quest;
+        }
+
+        /**
+         * Get the marks this entry still needs, i.e. the marks not clicked as done yet.
+         * @return mapping of dungeon to amount of marks still needed
+         */
+        Map<String, Integer> getOutstandingMarks() {
+            return marks.getOutstanding();
+        }
+    }
 
     public static void main(String[] args){
+        StartupBenchmark.reached(StartupBenchmark.MAIN);
         SwingUtilities.invokeLater(() -> {
 
-            //QUEST SELECT WINDOW (starts as invisible)
+            //MAIN WINDOW
+            frame = new JFrame("RotMG Mark Quest Tracker");
+            MarkTrackerGUI tracker = new MarkTrackerGUI();
+            frame.setContentPane(tracker.mainPanel);
+            frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+            frame.setResizable(false); //no resizing allowed, cursed UI design
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowOpened(WindowEvent e) {
+                    StartupBenchmark.reached(StartupBenchmark.FIRST_WINDOW);
+                    if (StartupBenchmark.isAuto()){ //benchmark: search right away, as an impatient user would
+                        tracker.getQuestSelector().setSearchText(StartupBenchmark.AUTO_SEARCH);
+                    }
+                }
+            });
+            frame.pack();
+            frame.setVisible(true);
+
+            //LOCAL SERVER (optional, for overlays and other tools)
+            String port = System.getProperty(TrackerServer.PORT_PROPERTY);
+            if (port != null){
+                try {
+                    new TrackerServer(Integer.parseInt(port), tracker).start();
+                } catch (IOException | NumberFormatException e){
+                    System.out.println("Could not start server on port " + port);
+                    e.printStackTrace();
+                }
+            }
+
+            //CATALOG SOURCES (optional, community and event catalogs may change while running)
+            if (ResourceManager.getInstance().canReloadCatalog()){
+                followCatalog(tracker);
+            }
+
+            //QUEST SELECT WINDOW is not needed to show the main window: built once warm-up is done,
+            //or earlier if it is needed before that (see getQuestSelector)
+            StartupWarmup.start(tracker::getQuestSelector);
+        });
+    }
+
+    /**
+     * Check the catalog sources for changes in the background, replacing the library, moving the tracked quests over to it
+     * and refreshing the search results when they changed. Only changed sources are read, see CatalogMerger.
+     *
+     * @param tracker the tracker whose quests are moved to the new library
+     */
+    private static void followCatalog(MarkTrackerGUI tracker) {
+        Thread poll = new Thread(() -> {
+            while (true){
+                try {
+                    Thread.sleep(CATALOG_POLL_INTERVAL);
+                } catch (InterruptedException e){
+                    return;
+                }
+                CatalogMerger.Report report = QuestLibrary.reloadCatalog();
+                if (report.hasChanges()){
+                    System.out.println(report);
+                    SwingUtilities.invokeLater(() -> {
+                        tracker.catalogChanged(QuestLibrary.getInstance());
+                        if (questSelector != null) questSelector.refreshQuests();
+                    });
+                }
+            }
+        }, "CatalogReload");
+        poll.setDaemon(true);
+        poll.start();
+    }
+
+    /**
+     * Get the quest selection window, building it (invisible) on first use.
+     *
+     * Building it searches and draws quests, which is kept out of the way of showing the main window.
+     *
+     * @return the quest selector
+     */
+    private MarkQuestSelectorGUI getQuestSelector() {
+        if (questSelector == null){
             questFrame = new JFrame("RotMG Mark Quest Tracker (Quest Selection)");
             questSelector = new MarkQuestSelectorGUI(questFrame);
             questFrame.setContentPane(questSelector.getMainPanel());
@@ -49,25 +200,29 @@ public class MarkTrackerGUI {
             Dimension dim = Toolkit.getDefaultToolkit().getScreenSize();
             questFrame.setLocation((int)(dim.width * 0.1), 0);
 
-            //MAIN WINDOW
-            frame = new JFrame("RotMG Mark Quest Tracker");
-            frame.setContentPane(new MarkTrackerGUI().mainPanel);
-            frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-            frame.setResizable(false); //no resizing allowed, cursed UI design
-            frame.pack();
-            frame.setVisible(true);
-
-        });
+            questSelector.setMarkTrackerReference(this); //set up reference back to this object for passing selected Quests
+            StartupBenchmark.reached(StartupBenchmark.SELECTOR_READY);
+        }
+        return questSelector;
     }
 
     private MarkTrackerGUI(){
         activeQuests = new ArrayList<>();
+        activeByDungeon = new HashMap<>();
+        layoutScheduler = new LayoutScheduler(frame);
+        progressStats = new ProgressStats();
+        etaOrder = new EtaOrder();
 
         //GUI INITIALIZATION
-        addQuestButton.addActionListener(e -> questFrame.setVisible(true));
-
-        questSelector.setMarkTrackerReference(this); //set up reference back to this object for passing selected Quests
-        //(cannot pass 'this' in static context of Main
+        addQuestButton.addActionListener(e -> {
+            getQuestSelector();
+            questFrame.setVisible(true);
+        });
+        planRunsButton.addActionListener(e -> planRuns());
+        clearedDungeonButton.addActionListener(e -> askClearedDungeon());
+        importLogButton.addActionListener(e -> importLog());
+        inventoryButton.addActionListener(e -> showInventory());
+        sortByEtaCheckBox.addActionListener(e -> reorderQuestPanels());
 
         //declare UI Elements
         questScrollPaneViewport.setLayout(new BoxLayout(questScrollPaneViewport, BoxLayout.Y_AXIS)); //vertical alignment on quests
@@ -77,6 +232,27 @@ public class MarkTrackerGUI {
         activeQuestsScrollPane.getVerticalScrollBar().setUnitIncrement(15); //scroll speed
         activeQuestsScrollPane.setPreferredSize(new Dimension(500, 400));
         activeQuestsScrollPane.setViewportView(questScrollPaneViewport);
+
+        //adding invisible padding to the bottom, so that GridLayout doesn't stretch text placement to the middle when only 1 or 2 quests are displayed
+        //quests are inserted above it, see updateQuestLayout
+        for (int i = 0; i < PADDING_PANELS; i++){
+            JPanel jp = new JPanel();
+            jp.setBorder(new EmptyBorder(0,0,100,0));
+            jp.setName("padding");
+            questScrollPaneViewport.add(jp);
+        }
+
+        markDemand = new MarkDemand();
+        demandLabels = new HashMap<>();
+        progressBoost = new ProgressBoost();
+        markDemand.setListener((dungeon, outstanding) -> {
+            updateDemandLabel(dungeon, outstanding);
+            progressBoost.setWeight(dungeon, outstanding);
+        });
+        markDemandPanel.setLayout(new GridLayout(0, 8)); //wraps to a new row every 8 dungeons
+
+        //estimates grow while the player is idle, without any mark being toggled
+        new Timer(ETA_REFRESH_INTERVAL, e -> refreshEtas()).start();
     }
 
     /**
@@ -84,25 +260,50 @@ public class MarkTrackerGUI {
      * @param q the MarkQuest to add
      */
     void addQuest(MarkQuest q) {
+        addQuests(new MarkQuest[]{q});
+    }
+
+    /**
+     * Add many MarkQuests to the list of currently tracking quests at once.
+     *
+     * The frame is laid out once after all of them are added, rather than once per quest.
+     *
+     * @param quests the MarkQuests to add
+     */
+    void addQuests(MarkQuest[] quests) {
+        for (MarkQuest q : quests){
+            addQuestPanel(q);
+        }
+        activeQuestCount.setText(activeQuests.size()+"");
+        trackingVersion++;
+        layoutScheduler.requestPack();
+    }
+
+    /**
+     * Builds the panel of a quest and adds it to the UI and to the internal lists, without laying out the frame.
+     * @param q the MarkQuest to add
+     */
+    private void addQuestPanel(MarkQuest q) {
         //generate JPanel
         JPanel toAdd = new JPanel();
         toAdd.setLayout(new GridLayout(0, 2));
         //add 2 panels to this, one holding text, the other the marks and add button (divides space 50/50)
 
         //pane 1
-        JPanel textPane = questSelector.genTextQuestInfoPane(q);
+        JPanel textPane = getQuestSelector().genTextQuestInfoPane(q);
 
         //pane 2
         JPanel markAndButtonPane = new JPanel();
         markAndButtonPane.setLayout(new FlowLayout()); //for tight padding between marks and addBtn
 
-        JPanel questReqDisplay = questSelector.createMarkPanel(q.getCompletionReq(), q.getTotalMarkAmount(), true);
+        MarkStrip questReqDisplay = getQuestSelector().createMarkPanel(q.getCompletionReq(), true);
 
+        TrackedQuest tracked = new TrackedQuest(q, toAdd, questReqDisplay);
         JButton addQuestButton = new JButton("Remove");
         addQuestButton.setToolTipText("Removes this quest from the list!");
         addQuestButton.addActionListener(e -> {
-            removeQuest(q);
-            questSelector.refreshQuests();
+            removeQuest(tracked); //only this entry, the same quest may be tracked more than once
+            getQuestSelector().refreshQuests();
         }); //add quest to tracking list if clicked
 
         markAndButtonPane.add(questReqDisplay);
@@ -112,72 +313,357 @@ public class MarkTrackerGUI {
         toAdd.add(markAndButtonPane);
 
         //add to list
-        activeQuests.add(new Pair<>(q, toAdd));
-        activeQuestCount.setText(activeQuests.size()+"");
+        activeQuests.add(tracked);
+        markDemand.addQuest(q.getCompletionReq());
+        for (MarkRequirement req : q.getCompletionReq()){
+            ArrayList<TrackedQuest> entries = activeByDungeon.computeIfAbsent(req.getMarkType(), d -> new ArrayList<>());
+            if (! entries.contains(tracked)) entries.add(tracked); //same dungeon twice in one quest
+        }
 
         //add to UI
-        updateQuestLayout(toAdd);
-        frame.pack();
-        frame.repaint();
-
+        etaOrder.add(tracked, progressStats.estimateMillis(tracked.getOutstandingMarks(), System.currentTimeMillis()));
+        toAdd.setToolTipText(describeEta(etaOrder.getEta(tracked)));
+        if (sortByEtaCheckBox.isSelected()){
+            questScrollPaneViewport.add(toAdd, etaOrder.indexOf(tracked));
+        } else {
+            updateQuestLayout(toAdd);
+        }
     }
 
     /**
      * Updates quest layout, by adding the new JPanel
      *
-     * Also handles invisible padding used in securing correct text placement staying at the bottom of the
-     * internal Components Array.
+     * The panel is inserted above the invisible padding (added once on initialisation),
+     * keeping the padding at the bottom of the internal Components Array.
      *
      * @param toAdd the panel to be added
      */
     private void updateQuestLayout(JPanel toAdd) {
-        for(Component c : questScrollPaneViewport.getComponents()){
-            if (c.getClass().equals(JPanel.class) && c.getName() != null && c.getName().equals("padding")){
-                questScrollPaneViewport.remove(c);
+        questScrollPaneViewport.add(toAdd, questScrollPaneViewport.getComponentCount() - PADDING_PANELS);
+    }
+
+    /**
+     * Removes quest from GUI and internal list
+     * @param t the entry of the quest to remove
+     */
+    private void removeQuest(TrackedQuest t) {
+        removeQuests(new TrackedQuest[]{t});
+    }
+
+    /**
+     * Removes many quests from GUI and internal list at once.
+     *
+     * The frame is laid out once after all of them are removed, rather than once per quest.
+     *
+     * @param entries the entries to remove (see getTrackedQuests), entries not active any more are ignored.
+     *                Other entries of the same quests stay.
+     */
+    void removeQuests(TrackedQuest[] entries) {
+        HashSet<TrackedQuest> toRemove = new HashSet<>(Arrays.asList(entries)); //entries are only equal to themselves
+
+        activeQuests.removeIf(t -> {
+            MarkQuest q = t.getQuest();
+            if (! toRemove.contains(t)) return false;
+
+            questScrollPaneViewport.remove(t.panel);
+            markDemand.removeQuest(t.getOutstandingMarks());
+            etaOrder.remove(t);
+            for (MarkRequirement req : q.getCompletionReq()){
+                activeByDungeon.get(req.getMarkType()).remove(t);
             }
+            return true;
+        });
+        activeQuestCount.setText(activeQuests.size()+"");
+        trackingVersion++;
+        layoutScheduler.requestPack();
+    }
+
+    /**
+     * A mark of an active quest was clicked
+     * @param dungeon the dungeon of the mark
+     * @param done true if it is now marked as done, false if undone
+     */
+    void markToggled(String dungeon, boolean done) {
+        long now = System.currentTimeMillis();
+        markDemand.markToggled(dungeon, done);
+        if (! applyingPastClears) progressStats.markToggled(dungeon, done, now);
+        trackingVersion++;
+
+        //both the outstanding marks and the pace of this dungeon changed: only the quests requiring it have a new estimate
+        for (TrackedQuest t : activeByDungeon.get(dungeon)){
+            updateEta(t, true, now);
         }
-        questScrollPaneViewport.add(toAdd);
+        JLabel l = demandLabels.get(dungeon);
+        if (l != null) l.setToolTipText(describePace(dungeon, now));
+    }
 
-        //adding invisible padding to the bottom, so that GridLayout doesn't stretch text placement to the middle when only 1 or 2 quests are displayed
-        for (int i = 0; i < 2; i++){
-            JPanel jp = new JPanel();
-            jp.setBorder(new EmptyBorder(0,0,100,0));
-            jp.setName("padding"); //name it to identify for removal in the future
-            questScrollPaneViewport.add(jp);
+    /**
+     * Estimate again how long an active quest will take, and move its panel if it is sorted by that.
+     *
+     * @param t an active quest
+     * @param force false to ignore small changes, see EtaOrder.update
+     * @param now the current time in ms
+     */
+    private void updateEta(TrackedQuest t, boolean force, long now) {
+        if (! etaOrder.update(t, progressStats.estimateMillis(t.getOutstandingMarks(), now), force)) return;
+
+        t.panel.setToolTipText(describeEta(etaOrder.getEta(t)));
+        if (sortByEtaCheckBox.isSelected()){
+            //every other panel is in order already: taking this one out and putting it back at its index keeps all in order
+            questScrollPaneViewport.remove(t.panel);
+            questScrollPaneViewport.add(t.panel, etaOrder.indexOf(t));
+            layoutScheduler.invalidate(questScrollPaneViewport);
         }
     }
 
     /**
-     * Removes quest from GUI and internal list
-     * @param q the MarkQuest to remove
-     */
-    private void removeQuest(MarkQuest q) {
-        for (Pair<MarkQuest, JPanel> p : activeQuests){
-            if (p.getKey().equals(q)){
-                questScrollPaneViewport.remove(p.getValue());
-                activeQuests.remove(p);
-                activeQuestCount.setText(activeQuests.size()+"");
-                frame.pack();
-                frame.repaint();
-                break;
+     * Estimate all active quests again, as time passes. Quests only move if their estimate changed noticeably.
+     */
+    private void refreshEtas() {
+        long now = System.currentTimeMillis();
+        for (TrackedQuest t : activeQuests){
+            updateEta(t, false, now);
+        }
+        for (Map.Entry<String, JLabel> l : demandLabels.entrySet()){
+            l.getValue().setToolTipText(describePace(l.getKey(), now));
+        }
+    }
+
+    /**
+     * Put all quest panels in order again after sorting by ETA was switched on or off:
+     * by estimated time to complete, or in the order they were added.
+     */
+    private void reorderQuestPanels() {
+        for (TrackedQuest t : activeQuests){
+            questScrollPaneViewport.remove(t.panel);
+        }
+        if (sortByEtaCheckBox.isSelected()){
+            for (TrackedQuest t : etaOrder.inOrder()){
+                updateQuestLayout(t.panel);
+            }
+        } else {
+            for (TrackedQuest t : activeQuests){
+                updateQuestLayout(t.panel);
             }
         }
+        layoutScheduler.invalidate(questScrollPaneViewport);
     }
 
     /**
-     * Check MarkQuest completion status and change button text if required
-     * @param container the container holding the MarkQuest status
+     * @param eta an estimate in ms, see ProgressStats.estimateMillis
+     * @return readable text of the estimate
      */
-    void updateRemoveButton(Container container) {
-        boolean allDone = true;
-        for (Component c: container.getComponents()){
-            if (((JLabel) c).getIcon() != null){ //this JLabel is NOT either an empty "grid filler" or marked as "X"
-                allDone = false; //not all marks are marked as done (or are grid fillers)
+    private static String describeEta(double eta) {
+        if (eta == 0) return "Complete";
+        if (Double.isInfinite(eta)) return "ETA unknown (no pace yet for every dungeon needed)";
+        long minutes = Math.max(1, Math.round(eta / 60000));
+        return "ETA about " + (minutes >= 60 ? minutes / 60 + "h " : "") + minutes % 60 + "m at your current pace";
+    }
+
+    /**
+     * @param dungeon a dungeon name
+     * @param now the current time in ms
+     * @return readable text of the pace of the player in that dungeon
+     */
+    private String describePace(String dungeon, long now) {
+        double runsPerHour = progressStats.getRunsPerHour(dungeon, now);
+        if (runsPerHour == 0) return dungeon;
+        return String.format("%s - %.1f runs/hour (%.1f over the last runs)",
+                dungeon, runsPerHour, progressStats.getRecentRunsPerHour(dungeon));
+    }
+
+    /**
+     * @return a number that changes whenever the active quests or their marks change
+     */
+    int getTrackingVersion() {
+        return trackingVersion;
+    }
+
+    /**
+     * Ask which dungeon was just cleared, then mark it as done on all active quests.
+     *
+     * Afterwards, shows which active quests it advanced, and which quests in the library use that mark.
+     */
+    private void askClearedDungeon() {
+        String[] dungeons = ResourceManager.getInstance().getDungeons();
+        Arrays.sort(dungeons);
+        String dungeon = (String) JOptionPane.showInputDialog(frame, "Which dungeon did you just clear?", "Cleared a dungeon",
+                JOptionPane.QUESTION_MESSAGE, null, dungeons, dungeons[0]);
+        if (dungeon == null) return; //cancelled
+
+        MarkQuest[] advanced = clearedDungeon(dungeon);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Advanced ").append(advanced.length).append(" active quest(s):\n");
+        for (MarkQuest q : advanced){
+            sb.append("  ").append(q.getName()).append("\n");
+        }
+        MarkQuest[] catalog = QuestLibrary.getInstance().getQuestsOfDungeon(dungeon);
+        sb.append("\n").append(catalog.length).append(" quest(s) use ").append(dungeon).append(" marks:\n");
+        for (MarkQuest q : catalog){
+            sb.append("  ").append(q.getType()).append(" - ").append(q.getName()).append("\n");
+        }
+        JOptionPane.showMessageDialog(frame, sb.toString(), "Cleared " + dungeon, JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * A dungeon was cleared: mark the first mark of it that is not done yet as done, on every active quest needing it.
+     *
+     * Only visits the active quests requiring this dungeon.
+     *
+     * @param dungeon the dungeon that was cleared
+     * @return the active quests that were advanced
+     */
+    MarkQuest[] clearedDungeon(String dungeon) {
+        ArrayList<MarkQuest> advanced = new ArrayList<>();
+        ArrayList<TrackedQuest> entries = activeByDungeon.get(dungeon);
+        if (entries == null) return new MarkQuest[]{};
+
+        for (TrackedQuest t : entries){
+            if (t.marks.markDone(dungeon)){ //first mark of this dungeon not done yet
+                advanced.add(t.getQuest());
+            }
+        }
+        return advanced.toArray(new MarkQuest[]{});
+    }
+
+    /**
+     * Apply a batch of dungeon clears, e.g. read from a game log: each clear marks one mark of that dungeon
+     * as done on every active quest needing it, see clearedDungeon.
+     *
+     * The frame is updated once for the whole batch (see LayoutScheduler).
+     *
+     * Clears made in the past (read back from a log) happened at times the log does not reliably tell:
+     * they advance the quests, but are left out of the pace (see ProgressStats), which would otherwise count them all as runs made just now.
+     *
+     * @param clears mapping of dungeon to amount of times it was cleared
+     * @param past whether the clears were made in the past, rather than just now
+     * @return amount of marks marked as done
+     */
+    int clearedDungeons(Map<String, Integer> clears, boolean past) {
+        applyingPastClears = past;
+        try {
+            int marks = 0;
+            for (Map.Entry<String, Integer> e : clears.entrySet()){
+                for (int i = 0; i < e.getValue(); i++){
+                    int advanced = clearedDungeon(e.getKey()).length;
+                    if (advanced == 0) break; //every mark of this dungeon is done, more clears change nothing
+                    marks += advanced;
+                }
+            }
+            return marks;
+        } finally {
+            applyingPastClears = false;
+        }
+    }
+
+    /**
+     * Ask for a game log (file or directory), apply every dungeon clear in it, and optionally keep following it for new clears.
+     *
+     * Reading happens in the background, each batch of clears is applied on the EDT. See DungeonLogImporter.
+     * Only the clears followed after the import count towards the pace of the player, see clearedDungeons.
+     */
+    private void importLog() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Choose a game log file, or a directory of log files");
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return; //cancelled
+        Path log = chooser.getSelectedFile().toPath();
+
+        boolean follow = JOptionPane.showConfirmDialog(frame, "Keep following this log for new clears?", "Import game log",
+                JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+
+        new Thread(() -> {
+            try {
+                int[] marks = new int[1]; //only touched on the EDT
+                DungeonLogParser parser = DungeonLogImporter.backfill(log, batch ->
+                        SwingUtilities.invokeLater(() -> marks[0] += clearedDungeons(batch, true)));
+
+                Closeable tail = follow ? DungeonLogImporter.tail(log, LOG_POLL_INTERVAL, batch ->
+                        SwingUtilities.invokeLater(() -> clearedDungeons(batch, false))) : null; //new lines: cleared just now
+
+                SwingUtilities.invokeLater(() -> { //after all batches above
+                    if (tail != null){
+                        stopFollowingLog();
+                        logTail = tail;
+                    }
+                    JOptionPane.showMessageDialog(frame, "Read " + parser.getLines() + " line(s) of " + log.getFileName()
+                            + ", " + parser.getSkipped() + " without a known dungeon.\n"
+                            + marks[0] + " mark(s) marked as done." + (tail != null ? "\nFollowing the log for new clears." : ""),
+                            "Import game log", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (IOException e){
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame, "Could not read " + log + ":\n" + e.getMessage(),
+                        "Import game log", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "DungeonLogImport").start();
+    }
+
+    /**
+     * Stop following the game log followed since the last importLog, if any.
+     */
+    private void stopFollowingLog() {
+        if (logTail == null) return;
+        try {
+            logTail.close();
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+        logTail = null;
+    }
+
+    /**
+     * Show the new amount of outstanding marks of a single dungeon in markDemandPanel.
+     *
+     * Only touches the label of this dungeon, adding it when first needed and removing it when no longer needed.
+     *
+     * @param dungeon the dungeon whose outstanding marks changed
+     * @param outstanding the new amount of outstanding marks
+     */
+    private void updateDemandLabel(String dungeon, int outstanding) {
+        JLabel l = demandLabels.get(dungeon);
+        if (outstanding == 0){
+            if (l != null){
+                markDemandPanel.remove(l);
+                demandLabels.remove(dungeon);
             }
+        } else {
+            if (l == null){
+                l = new JLabel(new ImageIcon(ResourceManager.getInstance().getSprite(dungeon)));
+                l.setToolTipText(dungeon);
+                demandLabels.put(dungeon, l);
+                markDemandPanel.add(l);
+            }
+            l.setText("x" + outstanding);
         }
+        layoutScheduler.invalidate(markDemandPanel); //many dungeons change at once when adding or removing quests
+    }
+
+    /**
+     * @return marks still needed per dungeon over all active quests, kept up to date
+     */
+    MarkDemand getMarkDemand() {
+        return markDemand;
+    }
+
+    /**
+     * @return the outstanding marks of all active quests as search ranking weights
+     */
+    ProgressBoost getProgressBoost() {
+        return progressBoost;
+    }
+
+    /**
+     * Check MarkQuest completion status and change button text if required
+     * @param marks the MarkStrip holding the MarkQuest status
+     */
+    void updateRemoveButton(MarkStrip marks) {
+        boolean allDone = marks.isAllDone();
+
         //get the button belonging to this questPanel
         JButton theButton = null;
-        Container parent = container.getParent(); //panel holding marks && button
+        Container parent = marks.getParent(); //panel holding marks && button
         for (Component c : parent.getComponents()){ //should always be element 2 (out of 2) but future-proof
             if (c.getClass().equals(JButton.class)){
                 theButton = ((JButton) c);
@@ -188,15 +674,217 @@ public class MarkTrackerGUI {
         theButton.setText(allDone ? "Complete" : "Remove");
     }
 
+    /**
+     * The catalog changed: move every tracked entry over to its quest in the new library (see QuestLibrary.findSameQuests).
+     * Quests of different libraries are never equal, an entry left on the old library would show as not tracked in the selector.
+     *
+     * - same type and requirements: the entry now holds the new quest, nothing else changes
+     * - changed: the entry is replaced by one of the new quest at the end of the list,
+     *   keeping as many marks of each dungeon done as it had (and the new quest needs)
+     * - gone from the catalog: the entry keeps its quest of the old library, it can still be completed or removed
+     *
+     * @param library the new library
+     */
+    void catalogChanged(QuestLibrary library) {
+        TrackedQuest[] entries = getTrackedQuests();
+        MarkQuest[] same = library.findSameQuests(getActiveQuests());
+
+        ArrayList<TrackedQuest> replaced = new ArrayList<>();
+        ArrayList<MarkQuest> replacements = new ArrayList<>();
+        for (int i = 0; i < entries.length; i++){
+            if (same[i] == null || same[i] == entries[i].quest) continue;
+            if (sameDefinition(entries[i].quest, same[i])){
+                entries[i].quest = same[i];
+            } else {
+                replaced.add(entries[i]);
+                replacements.add(same[i]);
+            }
+        }
+        trackingVersion++;
+        if (replaced.isEmpty()) return;
+
+        removeQuests(replaced.toArray(new TrackedQuest[]{}));
+        addQuests(replacements.toArray(new MarkQuest[]{})); //appended, in the same order
+        applyingPastClears = true; //carried over, not cleared just now
+        try {
+            for (int i = 0; i < replaced.size(); i++){
+                TrackedQuest old = replaced.get(i);
+                TrackedQuest t = activeQuests.get(activeQuests.size() - replaced.size() + i);
+                HashMap<String, Integer> done = new HashMap<>(); //dungeon ; marks of it done on the old entry
+                for (MarkRequirement req : old.quest.getCompletionReq()){
+                    done.merge(req.getMarkType(), req.getAmount(), Integer::sum);
+                }
+                old.getOutstandingMarks().forEach((dungeon, outstanding) -> done.merge(dungeon, -outstanding, Integer::sum));
+                for (Map.Entry<String, Integer> e : done.entrySet()){
+                    for (int k = 0; k < e.getValue(); k++){
+                        if (! t.marks.markDone(e.getKey())) break; //the new quest needs fewer of this dungeon
+                    }
+                }
+            }
+        } finally {
+            applyingPastClears = false;
+        }
+    }
+
+    //same type and requirements, in the same order
+    private static boolean sameDefinition(MarkQuest a, MarkQuest b) {
+        if (! a.getType().equals(b.getType())) return false;
+        MarkRequirement[] ra = a.getCompletionReq();
+        MarkRequirement[] rb = b.getCompletionReq();
+        if (ra.length != rb.length) return false;
+        for (int i = 0; i < ra.length; i++){
+            if (! ra[i].getMarkType().equals(rb[i].getMarkType()) || ra[i].getAmount() != rb[i].getAmount()) return false;
+        }
+        return true;
+    }
+
     /**
      * get list of all active MarkQuests
      * @return array of active MarkQuests
      */
     MarkQuest[] getActiveQuests() {
         ArrayList<MarkQuest> arr = new ArrayList<>();
-        for (Pair<MarkQuest, JPanel> p : activeQuests){
-            arr.add(p.getKey());
+        for (TrackedQuest t : activeQuests){
+            arr.add(t.getQuest());
         }
         return arr.toArray(new MarkQuest[]{});
     }
+
+    /**
+     * get list of all active quests, with their own marks. A quest tracked twice is in it twice
+     * @return array of active quests, in the order they were added
+     */
+    TrackedQuest[] getTrackedQuests() {
+        return activeQuests.toArray(new TrackedQuest[]{});
+    }
+
+    /**
+     * Ask for an amount of runs, then show which dungeons to run to complete the most active quests.
+     *
+     * The planner runs in the background, the dialog shows every better plan as it is found.
+     */
+    private void planRuns() {
+        String input = JOptionPane.showInputDialog(frame, "How many dungeon runs do you want to plan for?", "10");
+        if (input == null) return; //cancelled
+
+        int runBudget;
+        try {
+            runBudget = Integer.parseInt(input.trim());
+            if (runBudget < 0) throw new NumberFormatException();
+        } catch (NumberFormatException e){
+            JOptionPane.showMessageDialog(frame, input + " is not a valid amount of runs!", "Plan Runs", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        ArrayList<Map<String, Integer>> outstanding = new ArrayList<>(); //per entry: a quest tracked twice is planned twice
+        for (TrackedQuest t : activeQuests){
+            outstanding.add(t.getOutstandingMarks());
+        }
+        RoutePlanner planner = new RoutePlanner(getActiveQuests(), outstanding);
+
+        JTextArea planText = new JTextArea("Planning...", 15, 40);
+        planText.setEditable(false);
+        JDialog dialog = new JDialog(frame, "Plan for " + runBudget + " runs");
+        dialog.setContentPane(new JScrollPane(planText));
+        dialog.pack();
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+
+        Thread planning = new Thread(() -> {
+            RoutePlan plan = planner.plan(runBudget, PLAN_TIME_BUDGET,
+                    p -> SwingUtilities.invokeLater(() -> planText.setText(describePlan(p))));
+            SwingUtilities.invokeLater(() -> planText.setText(describePlan(plan)));
+        }, "RoutePlanner");
+        planning.setDaemon(true); //do not keep the program running after the GUI is closed
+        planning.start();
+    }
+
+    /**
+     * @param plan a RoutePlan
+     * @return readable text of what to run, and what it completes
+     */
+    private String describePlan(RoutePlan plan) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Runs (").append(plan.getTotalRuns()).append(" total):\n");
+        for (Map.Entry<String, Integer> r : plan.getRuns().entrySet()){
+            sb.append("  ").append(r.getValue()).append("x ").append(r.getKey()).append("\n");
+        }
+        sb.append("\nCompletes ").append(plan.getCompleted().length).append(" quest(s):\n");
+        for (MarkQuest q : plan.getCompleted()){
+            sb.append("  ").append(q.getType()).append(" - ").append(q.getName()).append("\n");
+        }
+        sb.append(plan.isOptimal() ? "\n(best possible plan)" : "\n(still searching / out of time, best plan so far)");
+        return sb.toString();
+    }
+
+    /**
+     * Show a dialog to enter the marks held, listing the quests they complete and the quests a single run away.
+     *
+     * The list is updated mark by mark as the amounts change (see Completability.Inventory).
+     * The amounts are kept until the next time the dialog is shown.
+     */
+    private void showInventory() {
+        QuestLibrary library = QuestLibrary.getInstance();
+        if (inventory == null || inventoryLibrary != library){ //first time, or the catalog was reloaded meanwhile
+            Completability.Inventory renewed = library.getCompletability().newInventory();
+            if (inventory != null){
+                for (String dungeon : ResourceManager.getInstance().getDungeons()){
+                    for (int i = inventory.getAmount(dungeon); i > 0; i--) renewed.add(dungeon);
+                }
+            }
+            inventory = renewed;
+            inventoryLibrary = library;
+        }
+
+        JTextArea resultText = new JTextArea(describeInventory(), 20, 40);
+        resultText.setEditable(false);
+
+        JPanel amounts = new JPanel(new GridLayout(0, 4)); //sprite and amount, 2 dungeons per row
+        String[] dungeons = ResourceManager.getInstance().getDungeons();
+        Arrays.sort(dungeons);
+        for (String dungeon : dungeons){
+            JLabel sprite = new JLabel(new ImageIcon(ResourceManager.getInstance().getSprite(dungeon)));
+            sprite.setToolTipText(dungeon);
+            JSpinner amount = new JSpinner(new SpinnerNumberModel(inventory.getAmount(dungeon), 0, 999, 1));
+            amount.setToolTipText("Marks of " + dungeon + " you have");
+            amount.addChangeListener(e -> {
+                int wanted = (Integer) amount.getValue();
+                while (inventory.getAmount(dungeon) < wanted) inventory.add(dungeon);
+                while (inventory.getAmount(dungeon) > wanted) inventory.remove(dungeon);
+                resultText.setText(describeInventory());
+                resultText.setCaretPosition(0);
+            });
+            amounts.add(sprite);
+            amounts.add(amount);
+        }
+
+        JPanel content = new JPanel(new GridLayout(1, 2));
+        content.add(new JScrollPane(amounts));
+        content.add(new JScrollPane(resultText));
+
+        JDialog dialog = new JDialog(frame, "Mark Inventory");
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * @return readable text of the quests the inventory completes, and the quests a run away
+     */
+    private String describeInventory() {
+        StringBuilder sb = new StringBuilder();
+        MarkQuest[] completable = inventory.getCompletable();
+        sb.append("Completable now (").append(completable.length).append("):\n");
+        for (MarkQuest q : completable){
+            sb.append("  ").append(q.getType()).append(" - ").append(q.getName()).append("\n");
+        }
+        MarkQuest[] oneRunAway = inventory.getOneRunAway();
+        sb.append("\nOne run away (").append(oneRunAway.length).append("):\n");
+        for (MarkQuest q : oneRunAway){
+            sb.append("  ").append(q.getType()).append(" - ").append(q.getName())
+                    .append("  (").append(inventory.getMissingDungeon(q)).append(")\n");
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,75 @@
+package GUI;
+
+import MarkData.QuestLibrary;
+import MarkData.QuestTable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * Measures how long painting the MarkStrip of a quest takes.
+ *
+ * Builds a strip for every quest of the library, then paints them all off-screen, round after round.
+ * With a display the strips are placed in a window (never shown) so that they paint the sprites SpriteRenderer made
+ * for the screen, as strips shown by the quest selector do. Headless they paint the sprites of ResourceManager.
+ * Every mark is painted: a sprite if the mark is not done, or an X for one mark out of every 3 marked done.
+ *
+ * Usage: PaintBenchmark [rounds], by default 200
+ */
+class PaintBenchmark {
+
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int DONE_EVERY = 3; //every this many marks one is marked done
+
+    private PaintBenchmark(){
+        //main only
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        SwingUtilities.invokeAndWait(() -> run(rounds)); //Swing components, paint them on the EDT
+    }
+
+    private static void run(int rounds){
+        QuestTable table = QuestLibrary.getInstance().getQuestTable();
+        JWindow window = GraphicsEnvironment.isHeadless() ? null : new JWindow();
+        ArrayList<MarkStrip> strips = new ArrayList<>();
+        int marks = 0;
+        for (int row = 0; row < table.size(); row++){
+            MarkStrip strip = new MarkStrip(QuestLibrary.getInstance().getQuest(row).getCompletionReq(), false);
+            strip.setSize(strip.getPreferredSize());
+            for (int i = 0; i < table.getReqEnd(row) - table.getReqStart(row); i += DONE_EVERY){
+                strip.setDone(i, true);
+            }
+            if (window != null) window.add(strip);
+            strips.add(strip);
+            marks += table.getReqEnd(row) - table.getReqStart(row);
+        }
+
+        GraphicsConfiguration configuration = window == null ? null : window.getGraphicsConfiguration();
+        BufferedImage canvas = configuration == null
+                ? new BufferedImage(160, 80, BufferedImage.TYPE_INT_ARGB_PRE)
+                : configuration.createCompatibleImage(160, 80, Transparency.TRANSLUCENT);
+        Graphics2D g = canvas.createGraphics();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) paintAll(strips, g);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) paintAll(strips, g);
+        long nanos = System.nanoTime() - start;
+        g.dispose();
+        if (window != null) window.dispose();
+
+        System.out.println("Paint benchmark: " + strips.size() + " strips of " + marks + " marks in all, "
+                + (configuration == null ? "headless" : "screen compatible") + " sprites");
+        System.out.println(String.format("  %8.0f ns per strip, %6.0f ns per mark",
+                (double) nanos / rounds / Math.max(1, strips.size()), (double) nanos / rounds / Math.max(1, marks)));
+    }
+
+    private static void paintAll(ArrayList<MarkStrip> strips, Graphics2D g){
+        for (MarkStrip strip : strips){
+            strip.paint(g);
+        }
+    }
+}
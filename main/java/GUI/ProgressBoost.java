@@ -0,0 +1,77 @@
+package GUI;
+
+import MarkData.QuestTable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Helper class of SearchManager
+ *
+ * Ranks up quests that need marks the player is already after: a run of a dungeon that tracked quests
+ * still need marks of, counts for the boosted quest as well.
+ *
+ * The weight of a dungeon is the amount of its marks still needed over all tracked quests (see MarkDemand).
+ * Weights are changed one dungeon at a time by the tracker, as quests are tracked and marks toggled.
+ * The boost of a quest is the amount of its marks such runs would also give it: over its requirements,
+ * the smaller of the required amount and the weight of the dungeon. Never more than MAX_BOOST.
+ *
+ * Changing weights (EDT) and reading them (search threads) can happen at once:
+ * weights are replaced, never changed, so a search sees the same weights from its first to its last page.
+ */
+class ProgressBoost {
+
+    static final int MAX_BOOST = 31; //max score of the boost stage, its share of RankingPipeline.MAX_SCORE_BITS
+
+    private volatile Map<String, Integer> weights = Collections.emptyMap(); //dungeon ; marks still needed, unmodifiable
+
+    /**
+     * Set the weight of a single dungeon, see MarkDemand.setListener
+     * @param dungeon a dungeon name
+     * @param outstanding marks of this dungeon still needed over all tracked quests
+     */
+    synchronized void setWeight(String dungeon, int outstanding){
+        HashMap<String, Integer> changed = new HashMap<>(weights);
+        if (outstanding == 0){
+            changed.remove(dungeon);
+        } else {
+            changed.put(dungeon, outstanding);
+        }
+        weights = Collections.unmodifiableMap(changed);
+    }
+
+    /**
+     * Get the current weights, by dungeon id of a QuestTable, for use with boostOf.
+     *
+     * @param table the table searched
+     * @return dungeon id ; weight. null if no dungeon has any weight (nothing to boost)
+     */
+    int[] weightsOf(QuestTable table){
+        Map<String, Integer> w = weights;
+        if (w.isEmpty()) return null;
+
+        int[] byId = new int[table.getDungeonCount()];
+        for (Map.Entry<String, Integer> e : w.entrySet()){
+            int id = table.getDungeonIdOf(e.getKey());
+            if (id >= 0) byId[id] = e.getValue();
+        }
+        return byId;
+    }
+
+    /**
+     * @param table the table searched
+     * @param row the row of the quest
+     * @param weights see weightsOf, may be null
+     * @return the boost of the quest, 0 to MAX_BOOST
+     */
+    static int boostOf(QuestTable table, int row, int[] weights){
+        if (weights == null) return 0;
+
+        int boost = 0;
+        for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+            boost += Math.min(table.getReqAmount(i), weights[table.getReqDungeon(i)]);
+        }
+        return Math.min(boost, MAX_BOOST);
+    }
+}
@@ -0,0 +1,449 @@
+package GUI;
+
+import MarkData.LocalizedNames;
+import MarkData.QuestLibrary;
+import MarkData.QuestTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A step in a QueryPlan: a part of a structured search query (see QueryParser).
+ *
+ * Each step can either produce all quest rows it matches (rows), or check a single row (test).
+ * Before running, each step estimates how many rows it matches and how many rows it has to look at,
+ * so that an AND can start from its most selective part and only test the others on what that part matched.
+ */
+abstract class QueryNode {
+
+    final QuestLibrary questLibrary;
+    final QuestTable table;
+    int actualRows = -1; //rows matched when last run, -1 if never run (for explain)
+    String role = ""; //role of this step within its parent, for explain
+
+    QueryNode(QuestLibrary questLibrary){
+        this.questLibrary = questLibrary;
+        this.table = questLibrary.getQuestTable();
+    }
+
+    /**
+     * @return estimated amount of rows this step matches
+     */
+    abstract int estimate();
+
+    /**
+     * @return estimated amount of rows looked at to produce rows()
+     */
+    abstract int cost();
+
+    /**
+     * @return all rows this step matches, ascending
+     */
+    abstract int[] rows();
+
+    /**
+     * @param row a row of the QuestTable
+     * @return whether this step matches that row
+     */
+    abstract boolean test(int row);
+
+    /**
+     * @return short description of this step, without its children
+     */
+    abstract String describe();
+
+    /**
+     * Add a description of this step and its children to an explain output.
+     */
+    void explain(StringBuilder sb, String indent){
+        sb.append(indent).append(role).append(describe())
+                .append("  est=").append(estimate())
+                .append(" cost=").append(cost());
+        if (actualRows >= 0) sb.append(" rows=").append(actualRows);
+        sb.append("\n");
+    }
+
+    //run rows(), keeping the amount of matched rows for explain
+    int[] run(){
+        int[] rows = rows();
+        actualRows = rows.length;
+        return rows;
+    }
+
+    /**
+     * @return union of two ascending row arrays, ascending and without duplicates
+     */
+    static int[] union(int[] a, int[] b){
+        int[] merged = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length){
+            int next;
+            if (j >= b.length || (i < a.length && a[i] < b[j])) next = a[i++];
+            else if (i >= a.length || b[j] < a[i]) next = b[j++];
+            else { next = a[i++]; j++; } //in both
+            merged[n++] = next;
+        }
+        return Arrays.copyOf(merged, n);
+    }
+
+    /**
+     * Matches quests whose type contains a value ("type:epic").
+     * Uses the rows of each type, kept by QuestLibrary.
+     */
+    static class TypeNode extends QueryNode {
+        private final String value;
+        private final boolean[] typeMask;
+        private final int matching; //rows of all matching types
+
+        TypeNode(QuestLibrary questLibrary, String value){
+            super(questLibrary);
+            this.value = value;
+            typeMask = new boolean[table.getTypeCount()];
+            int count = 0;
+            for (int t = 0; t < typeMask.length; t++){
+                if (SearchManager.normalize(table.getTypeName(t)).contains(value)){
+                    typeMask[t] = true;
+                    count += questLibrary.getRowsOfType(t).length;
+                }
+            }
+            matching = count;
+        }
+
+        @Override
+        int estimate() {
+            return matching; //exact
+        }
+
+        @Override
+        int cost() {
+            return matching;
+        }
+
+        @Override
+        int[] rows() {
+            int[] rows = new int[]{};
+            for (int t = 0; t < typeMask.length; t++){
+                if (typeMask[t]) rows = union(rows, questLibrary.getRowsOfType(t));
+            }
+            return rows;
+        }
+
+        @Override
+        boolean test(int row) {
+            return typeMask[table.getTypeId(row)];
+        }
+
+        @Override
+        String describe() {
+            return "TYPE " + value + " (type index)";
+        }
+    }
+
+    /**
+     * Matches quests requiring a dungeon whose name contains a value ("dungeon:nest").
+     * Uses the dungeon to quest index of the QuestTable.
+     */
+    static class DungeonNode extends QueryNode {
+        private final String value;
+        private final boolean[] dungeonMask;
+        private final int postings; //postings of all matching dungeons, a quest can be in more than one
+
+        DungeonNode(QuestLibrary questLibrary, String value){
+            super(questLibrary);
+            this.value = value;
+            dungeonMask = new boolean[table.getDungeonCount()];
+            int count = 0;
+            for (int d = 0; d < dungeonMask.length; d++){
+                if (SearchManager.normalize(table.getDungeonName(d)).contains(value)){
+                    dungeonMask[d] = true;
+                    count += table.getPostingEnd(d) - table.getPostingStart(d);
+                }
+            }
+            postings = count;
+        }
+
+        @Override
+        int estimate() {
+            return Math.min(postings, table.size());
+        }
+
+        @Override
+        int cost() {
+            return postings;
+        }
+
+        @Override
+        int[] rows() {
+            int[] all = new int[postings];
+            int n = 0;
+            for (int d = 0; d < dungeonMask.length; d++){
+                if (! dungeonMask[d]) continue;
+                for (int i = table.getPostingStart(d); i < table.getPostingEnd(d); i++){
+                    all[n++] = table.getPosting(i);
+                }
+            }
+            Arrays.sort(all);
+            int unique = 0;
+            for (int i = 0; i < all.length; i++){
+                if (i == 0 || all[i] != all[i - 1]) all[unique++] = all[i];
+            }
+            return Arrays.copyOf(all, unique);
+        }
+
+        @Override
+        boolean test(int row) {
+            for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+                if (dungeonMask[table.getReqDungeon(i)]) return true;
+            }
+            return false;
+        }
+
+        @Override
+        String describe() {
+            return "DUNGEON " + value + " (dungeon index)";
+        }
+    }
+
+    /**
+     * Matches quests whose name contains a value ("name:king", or a "quoted phrase"),
+     * in English or in the localized names searched.
+     * Names have no index, so producing all rows means scanning the whole library.
+     */
+    static class NameNode extends QueryNode {
+        private static final int SAMPLE_SIZE = 256; //rows sampled to estimate how many match
+
+        private final String value;
+        private final LocalizedNames localized; //null if English only
+        private final int estimate;
+
+        NameNode(QuestLibrary questLibrary, String value, LocalizedNames localized){
+            super(questLibrary);
+            this.value = value;
+            this.localized = localized;
+
+            //estimate from evenly spread sample rows
+            int size = table.size();
+            int samples = Math.min(SAMPLE_SIZE, size);
+            int hits = 0;
+            for (int i = 0; i < samples; i++){
+                if (test((int) ((long) i * size / samples))) hits++;
+            }
+            estimate = samples == 0 ? 0 : (int) ((long) hits * size / samples);
+        }
+
+        @Override
+        int estimate() {
+            return estimate;
+        }
+
+        @Override
+        int cost() {
+            return table.size();
+        }
+
+        @Override
+        int[] rows() {
+            int[] rows = new int[table.size()];
+            int n = 0;
+            for (int row = 0; row < rows.length; row++){
+                if (test(row)) rows[n++] = row;
+            }
+            return Arrays.copyOf(rows, n);
+        }
+
+        @Override
+        boolean test(int row) {
+            return table.searchableNameContains(row, value) || (localized != null && localized.contains(row, value));
+        }
+
+        @Override
+        String describe() {
+            return "NAME " + value + (localized == null ? "" : " (+" + localized.getLocale() + ")") + " (scan)";
+        }
+    }
+
+    /**
+     * Matches quests not matched by its child ("-scout").
+     */
+    static class NotNode extends QueryNode {
+        private final QueryNode child;
+
+        NotNode(QuestLibrary questLibrary, QueryNode child){
+            super(questLibrary);
+            this.child = child;
+        }
+
+        @Override
+        int estimate() {
+            return table.size() - child.estimate();
+        }
+
+        @Override
+        int cost() {
+            return table.size();
+        }
+
+        @Override
+        int[] rows() {
+            int[] rows = new int[table.size()];
+            int n = 0;
+            for (int row = 0; row < rows.length; row++){
+                if (! child.test(row)) rows[n++] = row;
+            }
+            return Arrays.copyOf(rows, n);
+        }
+
+        @Override
+        boolean test(int row) {
+            return ! child.test(row);
+        }
+
+        @Override
+        String describe() {
+            return "NOT";
+        }
+
+        @Override
+        void explain(StringBuilder sb, String indent) {
+            super.explain(sb, indent);
+            child.explain(sb, indent + "  ");
+        }
+    }
+
+    /**
+     * Matches quests matched by any of its children ("a OR b").
+     */
+    static class OrNode extends QueryNode {
+        private final QueryNode[] children;
+
+        OrNode(QuestLibrary questLibrary, QueryNode[] children){
+            super(questLibrary);
+            this.children = children;
+        }
+
+        @Override
+        int estimate() {
+            long sum = 0;
+            for (QueryNode c : children) sum += c.estimate();
+            return (int) Math.min(sum, table.size());
+        }
+
+        @Override
+        int cost() {
+            long sum = 0;
+            for (QueryNode c : children) sum += c.cost();
+            return (int) Math.min(sum, Integer.MAX_VALUE);
+        }
+
+        @Override
+        int[] rows() {
+            int[] rows = new int[]{};
+            for (QueryNode c : children){
+                rows = union(rows, c.run());
+                if (rows.length == table.size()) break; //everything matched already, skip the rest
+            }
+            return rows;
+        }
+
+        @Override
+        boolean test(int row) {
+            for (QueryNode c : children){
+                if (c.test(row)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        String describe() {
+            return "OR";
+        }
+
+        @Override
+        void explain(StringBuilder sb, String indent) {
+            super.explain(sb, indent);
+            for (QueryNode c : children) c.explain(sb, indent + "  ");
+        }
+    }
+
+    /**
+     * Matches quests matched by all of its children ("a b").
+     *
+     * The plan: the child with the fewest estimated rows (not a negation, if possible) produces the candidate rows,
+     * the other children only test those candidates, most selective first, stopping at the first one that fails.
+     */
+    static class AndNode extends QueryNode {
+        private final QueryNode[] children; //in plan order, children[0] produces the candidates
+
+        AndNode(QuestLibrary questLibrary, QueryNode[] children){
+            super(questLibrary);
+            QueryNode[] ordered = children.clone();
+            //cheapest way to produce candidates first, then most selective tests first
+            Arrays.sort(ordered, Comparator.comparingInt((QueryNode c) -> c instanceof NotNode ? 1 : 0)
+                    .thenComparingInt(QueryNode::estimate)
+                    .thenComparingInt(QueryNode::cost));
+            this.children = ordered;
+            for (int c = 0; c < ordered.length; c++){
+                ordered[c].role = (c == 0 ? "produce: " : "test " + c + ": ");
+            }
+        }
+
+        @Override
+        int estimate() {
+            int min = table.size();
+            for (QueryNode c : children) min = Math.min(min, c.estimate());
+            return min;
+        }
+
+        @Override
+        int cost() {
+            //produce candidates, then (at most) one test per candidate per other child
+            long cost = children[0].cost() + (long) children[0].estimate() * (children.length - 1);
+            return (int) Math.min(cost, Integer.MAX_VALUE);
+        }
+
+        @Override
+        int[] rows() {
+            int[] candidates = children[0].run();
+            for (int c = 1; c < children.length; c++){
+                if (candidates.length == 0) break; //nothing left, skip the rest
+
+                int n = 0;
+                for (int row : candidates){
+                    if (children[c].test(row)) candidates[n++] = row;
+                }
+                candidates = Arrays.copyOf(candidates, n);
+                children[c].actualRows = n; //rows left after this test
+            }
+            return candidates;
+        }
+
+        @Override
+        boolean test(int row) {
+            for (QueryNode c : children){
+                if (! c.test(row)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        String describe() {
+            return "AND";
+        }
+
+        @Override
+        void explain(StringBuilder sb, String indent) {
+            super.explain(sb, indent);
+            for (QueryNode c : children) c.explain(sb, indent + "  ");
+        }
+    }
+
+    /**
+     * @return the given nodes as a single node, an AND/OR of them if more than one
+     */
+    static QueryNode combine(QuestLibrary questLibrary, ArrayList<QueryNode> nodes, boolean and){
+        if (nodes.size() == 1) return nodes.get(0);
+        QueryNode[] arr = nodes.toArray(new QueryNode[]{});
+        return and ? new AndNode(questLibrary, arr) : new OrNode(questLibrary, arr);
+    }
+}
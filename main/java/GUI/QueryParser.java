@@ -0,0 +1,177 @@
+package GUI;
+
+import MarkData.LocalizedNames;
+import MarkData.QuestLibrary;
+
+import java.util.ArrayList;
+
+/**
+ * Helper class of SearchManager
+ *
+ * Parses structured search queries into QueryNodes, e.g. type:epic dungeon:nest -scout "pirate king"
+ *
+ * Grammar:
+ * query := and ('OR' and)*          "OR" binds weaker than the (implicit) AND between terms
+ * and   := term+
+ * term  := '-' term                  negation
+ *        | '(' query ')'
+ *        | field ':' (word | phrase) field is type, dungeon or name
+ *        | phrase                    "pirate king": quest name contains these words in this order
+ *        | word                      quest name, type or dungeon contains the word
+ *
+ * Parsing is lenient towards queries that are still being typed: an unclosed quote or parenthesis
+ * is closed at the end, and a trailing '-' or 'OR' is ignored.
+ */
+class QueryParser {
+
+    private final QuestLibrary questLibrary;
+    private final LocalizedNames localized; //names searched next to the English ones, null if none
+    private final ArrayList<String> tokens;
+    private int pos;
+
+    private QueryParser(QuestLibrary questLibrary, LocalizedNames localized, String text){
+        this.questLibrary = questLibrary;
+        this.localized = localized;
+        this.tokens = tokenize(text);
+        this.pos = 0;
+    }
+
+    /**
+     * @param localized quest names matched by name terms next to the English names, null for English only
+     * @param text a structured search query
+     * @return the root of the query, null if the query has no terms
+     * @throws IllegalArgumentException if the query uses an unknown field, or has an unexpected ')'
+     */
+    static QueryNode parse(QuestLibrary questLibrary, LocalizedNames localized, String text){
+        QueryParser parser = new QueryParser(questLibrary, localized, text);
+        QueryNode root = parser.parseOr();
+        if (parser.pos < parser.tokens.size()){
+            throw new IllegalArgumentException("Unexpected " + parser.tokens.get(parser.pos) + " in search query");
+        }
+        return root;
+    }
+
+    /**
+     * @param text a search text
+     * @return true if the text uses any structured query syntax, false for a plain list of words
+     */
+    static boolean isStructured(String text){
+        for (String token : tokenize(text)){
+            if (token.equals("OR") || token.equals("-") || token.equals("(") || token.startsWith("\"") || token.endsWith(":")){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private QueryNode parseOr(){
+        ArrayList<QueryNode> alternatives = new ArrayList<>();
+        QueryNode and = parseAnd();
+        if (and != null) alternatives.add(and);
+
+        while (peek("OR")){
+            pos++;
+            and = parseAnd();
+            if (and != null) alternatives.add(and);
+        }
+        return alternatives.isEmpty() ? null : QueryNode.combine(questLibrary, alternatives, false);
+    }
+
+    private QueryNode parseAnd(){
+        ArrayList<QueryNode> terms = new ArrayList<>();
+        while (pos < tokens.size() && ! peek("OR") && ! peek(")")){
+            QueryNode term = parseTerm();
+            if (term != null) terms.add(term);
+        }
+        return terms.isEmpty() ? null : QueryNode.combine(questLibrary, terms, true);
+    }
+
+    private QueryNode parseTerm(){
+        String token = tokens.get(pos++);
+
+        if (token.equals("-")){
+            if (pos >= tokens.size() || peek("OR") || peek(")")) return null; //trailing '-', still typing
+            QueryNode negated = parseTerm();
+            return negated == null ? null : new QueryNode.NotNode(questLibrary, negated);
+        }
+        if (token.equals("(")){
+            QueryNode inner = parseOr();
+            if (peek(")")) pos++; //unclosed parenthesis is closed at the end
+            return inner;
+        }
+        if (token.endsWith(":")){ //field, value is the next token
+            String field = token.substring(0, token.length() - 1).toLowerCase();
+            if (pos >= tokens.size()) return null; //still typing
+            String value = valueOf(tokens.get(pos++));
+            if (value.isEmpty()) return null;
+            switch (field){
+                case "type": return new QueryNode.TypeNode(questLibrary, value);
+                case "dungeon": return new QueryNode.DungeonNode(questLibrary, value);
+                case "name": return new QueryNode.NameNode(questLibrary, value, localized);
+                default: throw new IllegalArgumentException("Unknown search field " + field + ", use type, dungeon or name");
+            }
+        }
+        if (token.startsWith("\"")){ //phrase
+            String value = valueOf(token);
+            return value.isEmpty() ? null : new QueryNode.NameNode(questLibrary, value, localized);
+        }
+
+        //plain word: name, type or dungeon, like the unstructured search
+        String value = valueOf(token);
+        if (value.isEmpty()) return null;
+        ArrayList<QueryNode> anyField = new ArrayList<>();
+        anyField.add(new QueryNode.NameNode(questLibrary, value, localized));
+        QueryNode type = new QueryNode.TypeNode(questLibrary, value);
+        if (type.estimate() > 0) anyField.add(type);
+        QueryNode dungeon = new QueryNode.DungeonNode(questLibrary, value);
+        if (dungeon.estimate() > 0) anyField.add(dungeon);
+        return QueryNode.combine(questLibrary, anyField, false);
+    }
+
+    private boolean peek(String token){
+        return pos < tokens.size() && tokens.get(pos).equals(token);
+    }
+
+    //a word or phrase token as compared against searchable quest names (no spaces, see SearchManager.normalize)
+    private static String valueOf(String token){
+        if (token.startsWith("\"")) token = token.substring(1);
+        if (token.endsWith("\"")) token = token.substring(0, token.length() - 1);
+        return SearchManager.normalize(token).replaceAll("[\\s\\p{Z}]", "");
+    }
+
+    /**
+     * Splits a query into tokens: "(", ")", "-", "field:", "\"a phrase\"" and words.
+     */
+    private static ArrayList<String> tokenize(String text){
+        ArrayList<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()){
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)){
+                i++;
+            } else if (c == '(' || c == ')'){
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '-'){
+                tokens.add("-");
+                i++;
+            } else if (c == '"'){
+                int end = text.indexOf('"', i + 1);
+                if (end == -1) end = text.length() - 1; //unclosed quote, closed at the end
+                tokens.add(text.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < text.length() && ! Character.isWhitespace(text.charAt(i))
+                        && "()\":".indexOf(text.charAt(i)) == -1){
+                    i++;
+                }
+                if (i < text.length() && text.charAt(i) == ':'){
+                    i++; //field, keep the ':'
+                }
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,97 @@
+package GUI;
+
+import MarkData.LocalizedNames;
+import MarkData.QuestLibrary;
+
+/**
+ * Helper class of SearchManager
+ *
+ * A structured search query, parsed (see QueryParser) and planned (see QueryNode) once, ready to run.
+ * explain() describes the plan: which step produces candidate quests, which steps only test them,
+ * and how many quests each step was estimated to and actually did match.
+ */
+class QueryPlan {
+
+    private final QuestLibrary questLibrary;
+    private final String text;
+    private final QueryNode root; //null if the query has no terms yet
+    private long lastRunNanos = -1;
+    private int resultCount = -1;
+
+    /**
+     * @param text a structured search query
+     * @param include to find quests matching the query, or quests not matching it
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    QueryPlan(QuestLibrary questLibrary, String text, boolean include){
+        this(questLibrary, null, text, include);
+    }
+
+    /**
+     * @param localized quest names matched by name terms next to the English names, null for English only
+     * @param text a structured search query
+     * @param include to find quests matching the query, or quests not matching it
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    QueryPlan(QuestLibrary questLibrary, LocalizedNames localized, String text, boolean include){
+        this.questLibrary = questLibrary;
+        this.text = text;
+        QueryNode parsed = QueryParser.parse(questLibrary, localized, text);
+        if (parsed != null && ! include){
+            parsed = new QueryNode.NotNode(questLibrary, parsed);
+        }
+        this.root = parsed;
+    }
+
+    /**
+     * Run the query.
+     *
+     * A query without any terms (e.g. only a '-' so far) matches every quest.
+     *
+     * @return rows of all matching quests, ascending
+     */
+    int[] execute(){
+        long start = System.nanoTime();
+        int[] rows;
+        if (root == null){
+            rows = new int[questLibrary.getQuestTable().size()];
+            for (int row = 0; row < rows.length; row++) rows[row] = row;
+        } else {
+            rows = root.run();
+        }
+        lastRunNanos = System.nanoTime() - start;
+        resultCount = rows.length;
+        return rows;
+    }
+
+    /**
+     * @return the library snapshot the query runs on, rows returned by execute are rows of its QuestTable
+     */
+    QuestLibrary getLibrary(){
+        return questLibrary;
+    }
+
+    /**
+     * @return amount of quests matched when last executed, -1 if never executed
+     */
+    int getResultCount(){
+        return resultCount;
+    }
+
+    /**
+     * @return a description of the plan, one step per line, including actual rows if it has been run
+     */
+    String explain(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("Query: ").append(text.trim()).append("\n");
+        if (root == null){
+            sb.append("ALL (no terms)\n");
+        } else {
+            root.explain(sb, "");
+        }
+        if (lastRunNanos >= 0){
+            sb.append("ran in ").append(lastRunNanos / 1000).append(" us\n");
+        }
+        return sb.toString();
+    }
+}
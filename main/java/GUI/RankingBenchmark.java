@@ -0,0 +1,88 @@
+package GUI;
+
+import MarkData.MarkQuest;
+import MarkData.QuestLibrary;
+import MarkData.QuestTable;
+import ResourceLoader.ResourceManager;
+
+import java.util.Random;
+
+/**
+ * Measures what each stage of a RankingPipeline costs a search.
+ *
+ * Replaces the QuestLibrary by a generated one of the size asked for, tracks a few dungeons (so the boost stage
+ * is not left out), then times the first page of a search over every quest with the pipelines
+ * "hits", "hits,boost", "hits,boost,tier": the difference between two lines is the cost of the stage added.
+ *
+ * Usage: RankingBenchmark [quests] [search text], by default 200000 "the"
+ */
+class RankingBenchmark {
+
+    private static final String[] PIPELINES = {"hits", "hits,boost", "hits,boost,tier"};
+    private static final String[] WORDS = {"the", "king", "of", "shatters", "dark", "lost", "a", "hunt", "tomb", "sprite"};
+    private static final int PAGE_SIZE = 30; //same as the quest selector
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    private RankingBenchmark(){
+        //main only
+    }
+
+    public static void main(String[] args){
+        int quests = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        String text = args.length > 1 ? args[1] : "the";
+
+        QuestLibrary.publish(generate(quests, new Random(1)));
+        ProgressBoost boost = new ProgressBoost();
+        String[] dungeons = ResourceManager.getInstance().getDungeons();
+        for (int i = 0; i < dungeons.length; i += 3){
+            boost.setWeight(dungeons[i], 1 + i % 4);
+        }
+
+        System.out.println("Ranking benchmark: " + quests + " quests, searching \"" + text + "\"");
+        double previous = 0;
+        for (String config : PIPELINES){
+            SearchManager searchManager = new SearchManager(new RankingPipeline(config));
+            searchManager.setProgressBoost(boost);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) firstPage(searchManager, text);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) firstPage(searchManager, text);
+            double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+
+            System.out.println(String.format("  %-16s %8.2f ms per search, %6.1f ns per quest, %+.2f ms for the last stage",
+                    config, ms, ms * 1e6 / quests, previous == 0 ? 0 : ms - previous));
+            previous = ms;
+        }
+    }
+
+    private static MarkQuest[] firstPage(SearchManager searchManager, String text){
+        return searchManager.openCursor(text, true, q -> true).nextPage(PAGE_SIZE);
+    }
+
+    /**
+     * @return a table of random quests, with names made of WORDS, of the known types and dungeons
+     */
+    private static QuestTable generate(int quests, Random random){
+        String[] types = ResourceManager.getInstance().getTypes();
+        String[] dungeons = ResourceManager.getInstance().getDungeons();
+        QuestTable.Builder builder = new QuestTable.Builder();
+        for (int q = 0; q < quests; q++){
+            StringBuilder name = new StringBuilder();
+            for (int w = 1 + random.nextInt(4); w > 0; w--){
+                name.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            name.append(q);
+
+            int reqs = 1 + random.nextInt(8);
+            String[] reqDungeons = new String[reqs];
+            int[] amounts = new int[reqs];
+            for (int r = 0; r < reqs; r++){
+                reqDungeons[r] = dungeons[random.nextInt(dungeons.length)];
+                amounts[r] = 1 + random.nextInt(3);
+            }
+            builder.addQuest(types[random.nextInt(types.length)], name.toString(), reqDungeons, amounts);
+        }
+        return builder.build();
+    }
+}
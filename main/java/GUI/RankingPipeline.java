@@ -0,0 +1,210 @@
+package GUI;
+
+import MarkData.QuestTable;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Helper class of SearchManager
+ *
+ * Ranks search results by a list of stages, most significant first. Each stage is a scoring rule giving a quest
+ * a score from 0 to its max; a quest scoring higher on a stage ranks higher, later stages only decide between
+ * quests scoring the same on all stages before them. Quests with the same final score are ranked by tier.
+ *
+ * The stages are configured by name with the RANKING_PROPERTY system property, e.g.
+ * -Dmarktracker.ranking=hits,boost      (the default)
+ * -Dmarktracker.ranking=hits,tier,boost (tier before overlap with tracked quests)
+ * Stages available are "hits" (amount of filters hit), "boost" (see ProgressBoost) and "tier",
+ * more can be added with register.
+ *
+ * The "hits" stage also decides which quests are results at all. If it is not configured,
+ * it still does, without adding to the score.
+ *
+ * Per search, the stages are bound to that search (its filters, the current boost weights) and compiled
+ * into a single scorer: one lambda calling each stage once, weighing and adding their scores.
+ * Stages that score every quest the same for this search (e.g. boost while nothing is tracked) are left out,
+ * and stages that can reject a quest run first, so a quest that is no result costs a single stage.
+ */
+class RankingPipeline {
+
+    static final String RANKING_PROPERTY = "marktracker.ranking";
+    static final String DEFAULT_STAGES = "hits,boost";
+    static final String MATCH_STAGE = "hits"; //the stage deciding which quests are results
+    static final int MAX_SCORE_BITS = 15; //scores fit in this many bits, see SearchManager.includeKey
+
+    private static final Map<String, Stage> stages = new ConcurrentHashMap<>(); //name ; stage
+    static {
+        register(MATCH_STAGE, s -> new Scorer(s.match, s.maxMatch, true));
+        register("boost", s -> s.weights == null ? null
+                : new Scorer(row -> ProgressBoost.boostOf(s.table, row, s.weights), ProgressBoost.MAX_BOOST, false));
+        register("tier", s -> new Scorer(row -> s.tierRankOfType[s.table.getTypeId(row)], s.maxTierRank, false));
+    }
+
+    private final String[] names; //names of the stages, most significant first
+    private final Stage[] pipeline; //the stages, most significant first
+    private final boolean matchScored; //whether MATCH_STAGE was configured, rather than added as a filter only
+
+    /**
+     * A single search, as the stages see it. Immutable.
+     */
+    static class Search {
+        final QuestTable table;
+        final IntUnaryOperator match; //row ; amount of filters hit (0 to maxMatch), SearchCursor.NO_MATCH if no result
+        final int maxMatch;
+        final int[] weights; //boost weights, see ProgressBoost.weightsOf. null if nothing is boosted
+        final int[] tierRankOfType; //type id ; rank of its tier among all tiers, 0 = lowest
+        final int maxTierRank;
+
+        Search(QuestTable table, IntUnaryOperator match, int maxMatch, int[] weights, int[] tierRankOfType){
+            this.table = table;
+            this.match = match;
+            this.maxMatch = maxMatch;
+            this.weights = weights;
+            this.tierRankOfType = tierRankOfType;
+            int max = 0;
+            for (int rank : tierRankOfType) max = Math.max(max, rank);
+            maxTierRank = max;
+        }
+    }
+
+    /**
+     * A scoring rule.
+     */
+    interface Stage {
+        /**
+         * @param search the search about to be run
+         * @return the scorer of this stage for that search, null if it scores every quest 0
+         */
+        Scorer bind(Search search);
+    }
+
+    /**
+     * A stage bound to a single search.
+     */
+    static class Scorer {
+        final IntUnaryOperator score; //row ; 0 to max, or SearchCursor.NO_MATCH if rejects
+        final int max;
+        final boolean rejects; //whether it can give out SearchCursor.NO_MATCH
+
+        Scorer(IntUnaryOperator score, int max, boolean rejects){
+            this.score = score;
+            this.max = max;
+            this.rejects = rejects;
+        }
+    }
+
+    /**
+     * Add a stage, or replace the stage of that name. Affects pipelines made afterwards.
+     * @param name the name to configure it by
+     * @param stage the stage
+     */
+    static void register(String name, Stage stage){
+        stages.put(name, stage);
+    }
+
+    /**
+     * @param config names of the stages, most significant first, separated by ','
+     * @throws IllegalArgumentException if a stage is unknown or listed twice
+     */
+    RankingPipeline(String config){
+        ArrayList<String> parsed = new ArrayList<>();
+        for (String name : config.split(",")){
+            name = name.trim().toLowerCase();
+            if (name.isEmpty()) continue;
+            if (! stages.containsKey(name)) throw new IllegalArgumentException("Unknown ranking stage " + name + "! known: " + stages.keySet());
+            if (parsed.contains(name)) throw new IllegalArgumentException("Ranking stage " + name + " is listed twice!");
+            parsed.add(name);
+        }
+        matchScored = parsed.contains(MATCH_STAGE);
+        if (! matchScored) parsed.add(MATCH_STAGE); //as a filter only, see compile
+
+        names = parsed.toArray(new String[]{});
+        pipeline = new Stage[names.length];
+        for (int i = 0; i < names.length; i++){
+            pipeline[i] = stages.get(names[i]);
+        }
+    }
+
+    /**
+     * @return the pipeline configured with RANKING_PROPERTY, the default one if it is not set or not valid
+     */
+    static RankingPipeline configured(){
+        String config = System.getProperty(RANKING_PROPERTY, DEFAULT_STAGES);
+        try {
+            return new RankingPipeline(config);
+        } catch (IllegalArgumentException e){
+            System.out.println("Could not use ranking " + config + ": " + e.getMessage() + " Using " + DEFAULT_STAGES + " instead");
+            return new RankingPipeline(DEFAULT_STAGES);
+        }
+    }
+
+    /**
+     * Compile the stages into a single scorer for a search.
+     *
+     * @param search the search about to be run
+     * @return the scorer: row ; score (0 to its max), SearchCursor.NO_MATCH if the quest is no result
+     * @throws IllegalArgumentException if the scores of the stages do not fit in MAX_SCORE_BITS together
+     */
+    Scorer compile(Search search){
+        //bind, leaving out stages that do not tell quests apart in this search
+        ArrayList<Scorer> bound = new ArrayList<>();
+        for (int i = 0; i < pipeline.length; i++){
+            Scorer s = pipeline[i].bind(search);
+            if (s == null || (s.max == 0 && ! s.rejects)) continue;
+            if (names[i].equals(MATCH_STAGE) && ! matchScored){
+                IntUnaryOperator match = s.score;
+                s = new Scorer(row -> match.applyAsInt(row) == SearchCursor.NO_MATCH ? SearchCursor.NO_MATCH : 0, 0, true);
+            }
+            bound.add(s);
+        }
+
+        //weight of each stage: the product of (max + 1) of all less significant stages
+        int[] weights = new int[bound.size()];
+        long weight = 1;
+        for (int i = bound.size() - 1; i >= 0; i--){
+            weights[i] = (int) weight;
+            weight *= bound.get(i).max + 1;
+            if (weight > 1 << MAX_SCORE_BITS){
+                throw new IllegalArgumentException("Scores of ranking stages " + String.join(",", names) + " do not fit in " + MAX_SCORE_BITS + " bits!");
+            }
+        }
+
+        //fuse, stages that can reject first
+        IntUnaryOperator fused = null;
+        boolean rejects = false;
+        for (boolean rejecting : new boolean[]{true, false}){
+            for (int i = 0; i < bound.size(); i++){
+                Scorer s = bound.get(i);
+                if (s.rejects != rejecting) continue;
+                IntUnaryOperator term = weighted(s, weights[i]);
+                fused = fused == null ? term : fuse(fused, term);
+                rejects |= s.rejects;
+            }
+        }
+        return new Scorer(fused == null ? row -> 0 : fused, (int) weight - 1, rejects);
+    }
+
+    //the score of a stage times its weight
+    private static IntUnaryOperator weighted(Scorer s, int weight){
+        IntUnaryOperator score = s.score;
+        if (weight == 1) return score;
+        if (! s.rejects) return row -> score.applyAsInt(row) * weight;
+        return row -> {
+            int v = score.applyAsInt(row);
+            return v == SearchCursor.NO_MATCH ? SearchCursor.NO_MATCH : v * weight;
+        };
+    }
+
+    //the sum of two weighted scores, the second one not run if the first rejects
+    private static IntUnaryOperator fuse(IntUnaryOperator first, IntUnaryOperator second){
+        return row -> {
+            int a = first.applyAsInt(row);
+            if (a == SearchCursor.NO_MATCH) return SearchCursor.NO_MATCH;
+            int b = second.applyAsInt(row);
+            return b == SearchCursor.NO_MATCH ? SearchCursor.NO_MATCH : a + b;
+        };
+    }
+}
@@ -0,0 +1,144 @@
+package GUI;
+
+import MarkData.MarkQuest;
+import MarkData.QuestLibrary;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.LongToIntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Helper class of SearchManager
+ *
+ * Hands out the results of a single search one page at a time, best results first,
+ * so that a search never has to rank more quests than the user scrolls through.
+ *
+ * Results are ranked by a sort key per quest (higher first), the same keys getEligibleQuests sorts on
+ * (see SearchManager.includeKey and excludeKey): a cursor and getEligibleQuests always rank the same way.
+ *
+ * Each page is a scan over the library in tier order (highest first), keeping only the best 'pageSize' quests
+ * ranked after the previous page in a bounded heap: O(n log K) per page instead of a full sort.
+ * The scan stops early once the page is full and no quest of the tier reached can beat its worst quest,
+ * i.e. once the page holds quests of the max score of a higher tier (see the bound of the constructor).
+ *
+ * Not thread-safe: use a cursor from one thread at a time.
+ */
+class SearchCursor {
+
+    static final int NO_MATCH = -1; //score of a quest that is not part of the search results
+    static final long NO_KEY = -1; //sort key of a quest that is not part of the search results, keys are never negative
+
+    private final QuestLibrary library; //the snapshot searched, rows are rows of its QuestTable
+    private final IntToLongFunction keyOf; //row ; sort key, unique per row. NO_KEY if it is not a result
+    private final LongToIntFunction rowOf; //sort key ; row
+    private final IntToLongFunction boundOf; //row ; highest sort key any quest of its tier can have
+    private final Predicate<MarkQuest> displayFilter; //quests not passing this filter are skipped
+
+    private long lastKey = Long.MAX_VALUE; //key of the last quest handed out, next page starts right after it
+    private boolean exhausted = false;
+
+    /**
+     * @param library the QuestLibrary snapshot searched
+     * @param keyOf the sort key of a row, NO_KEY if it is not a result
+     * @param rowOf the row of a sort key
+     * @param boundOf the highest sort key a quest of the tier of a row could have (with the max score).
+     *                Must not increase with lower tiers: keys rank on score first, tier second
+     * @param displayFilter quests failing this filter are left out of the results
+     */
+    SearchCursor(QuestLibrary library, IntToLongFunction keyOf, LongToIntFunction rowOf, IntToLongFunction boundOf,
+                 Predicate<MarkQuest> displayFilter){
+        this.library = library;
+        this.keyOf = keyOf;
+        this.rowOf = rowOf;
+        this.boundOf = boundOf;
+        this.displayFilter = displayFilter;
+    }
+
+    /**
+     * @return a cursor without any results
+     */
+    static SearchCursor empty(QuestLibrary library){
+        SearchCursor cursor = new SearchCursor(library, row -> NO_KEY, key -> 0, row -> NO_KEY, q -> false);
+        cursor.exhausted = true;
+        return cursor;
+    }
+
+    /**
+     * Get the next page of results.
+     *
+     * @param pageSize maximum amount of quests to return
+     * @return up to pageSize quests, best first. Empty if there are no more results.
+     */
+    MarkQuest[] nextPage(int pageSize){
+        if (exhausted || pageSize <= 0){
+            return new MarkQuest[]{};
+        }
+
+        //min-heap on key, the root is the worst quest of the page so far
+        PriorityQueue<Long> page = new PriorityQueue<>(Math.min(pageSize, 1024));
+        for (int row : library.getRowsByTier()){
+            boolean full = page.size() == pageSize;
+            //every quest from here on is of this tier or lower, none can beat the worst quest of the full page
+            if (full && boundOf.applyAsLong(row) < page.peek()) break;
+
+            long key = keyOf.applyAsLong(row);
+            if (key == NO_KEY || key >= lastKey) continue; //no result, or on a previous page already
+            if (full && key < page.peek()) continue;
+            if (! displayFilter.test(library.getQuest(row))) continue;
+
+            if (full) page.poll();
+            page.add(key);
+        }
+
+        if (page.size() < pageSize) exhausted = true;
+        return handOut(page.size(), page::poll);
+    }
+
+    /**
+     * Get all results not handed out yet, sorting them all at once: for taking every result rather than paging.
+     *
+     * @return the remaining results, best first
+     */
+    MarkQuest[] remaining(){
+        if (exhausted){
+            return new MarkQuest[]{};
+        }
+
+        int[] byTier = library.getRowsByTier();
+        long[] keys = new long[Math.min(byTier.length, 1024)];
+        int count = 0;
+        for (int row : byTier){
+            long key = keyOf.applyAsLong(row);
+            if (key == NO_KEY || key >= lastKey || ! displayFilter.test(library.getQuest(row))) continue;
+            if (count == keys.length) keys = Arrays.copyOf(keys, Math.min(byTier.length, 2 * count));
+            keys[count++] = key;
+        }
+        Arrays.sort(keys, 0, count);
+
+        exhausted = true;
+        long[] sorted = keys;
+        int[] next = {0};
+        return handOut(count, () -> sorted[next[0]++]);
+    }
+
+    /**
+     * @return false if it is certain there are no more results, true if there might be.
+     */
+    boolean hasMore(){
+        return ! exhausted;
+    }
+
+    //the quests of 'size' keys taken worst first, best first
+    private MarkQuest[] handOut(int size, LongSupplier worstFirst){
+        MarkQuest[] toReturn = new MarkQuest[size];
+        for (int i = size - 1; i >= 0; i--){
+            long key = worstFirst.getAsLong();
+            if (i == size - 1) lastKey = key; //worst of this page, next page starts after it
+            toReturn[i] = library.getQuest(rowOf.applyAsInt(key));
+        }
+        return toReturn;
+    }
+}
@@ -1,148 +1,394 @@
 package GUI;
 
+import MarkData.LocalizedNames;
 import MarkData.MarkQuest;
+import MarkData.NameNormalizer;
 import MarkData.QuestLibrary;
+import MarkData.QuestTable;
 import ResourceLoader.ResourceManager;
-import javafx.util.Pair;
 
 import java.util.*;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
 
 /**
  * Helper class of MarkQuestSelectorGUI
  *
  * uses QuestLibrary and ResourceManager to turn user search string into suggested quests,
- * Sorted by relevancy and Tier.
+ * Sorted by the stages of a RankingPipeline (by default relevancy, then overlap with tracked quests, see ProgressBoost), then Tier.
+ *
+ * Quest names are searched in English, and in the locale set (see setLocale) if it has a name table.
+ *
+ * Safe to use from several threads at once: each search works on the QuestLibrary snapshot current when it started.
  */
 class SearchManager {
 
-    private ResourceManager resourceManager;
-    private QuestLibrary questLibrary;
+    static final String LOCALE_PROPERTY = "marktracker.locale"; //system property: locale searched next to English, optional
+
+    //flags of a quest in getEligibleQuests
+    private static final int WORD_HITS = 0xFFFF; //amount of search words in the quest name
+    private static final int MAX_WORD_HITS = 0xFF; //word hits kept in a sort key, see includeKey
+    private static final int TYPE_HIT = 1 << 16;
+    private static final int DUNGEON_HIT = 1 << 17;
+
+    private final ResourceManager resourceManager;
+    private final RankingPipeline pipeline;
+    private volatile Ranking ranking = null; //ranking of the library last searched, rebuilt when the library is replaced
+    private volatile ProgressBoost progressBoost = null; //null: tracked quests do not affect ranking
+    private volatile String locale = null; //quest names of this locale are searched as well, null for English only
+
+    /**
+     * A QuestLibrary snapshot, with the tier rank of each of its types. Immutable.
+     */
+    private static class Ranking {
+        final QuestLibrary library;
+        final int[] tierRankOfType; //type id ; rank of its tier among all tiers, for compact sort keys
+
+        Ranking(QuestLibrary library){
+            this.library = library;
+            tierRankOfType = new int[library.getQuestTable().getTypeCount()];
+            for (int t = 0; t < tierRankOfType.length; t++){
+                for (int other = 0; other < tierRankOfType.length; other++){
+                    if (library.getTierOfType(other) < library.getTierOfType(t)) tierRankOfType[t]++;
+                }
+            }
+        }
+
+        /**
+         * @return rank (0 = lowest) of the tier of a quest among all tiers, fits in 7 bits
+         */
+        int tierRank(int row){
+            return tierRankOfType[library.getQuestTable().getTypeId(row)];
+        }
+    }
 
     SearchManager(){
-        resourceManager = ResourceManager.getInstance();
-        questLibrary = QuestLibrary.getInstance();
+        this(RankingPipeline.configured());
     }
 
-    MarkQuest[] getEligibleQuests(String text, boolean include){
-        String[] words = sanitizeInput(text);
+    /**
+     * @param pipeline the ranking stages of every search
+     */
+    SearchManager(RankingPipeline pipeline){
+        resourceManager = ResourceManager.getInstance();
+        this.pipeline = pipeline;
+
+        String configured = System.getProperty(LOCALE_PROPERTY);
+        if (configured != null){
+            try {
+                setLocale(configured);
+            } catch (IllegalArgumentException e){
+                System.out.println("Could not search in locale " + configured + ": " + e.getMessage());
+            }
+        }
+    }
 
-        String[] typeFilter = getTypeFilter(words);
-        String[] dungeonFilter = getDungeonFilter(words);
+    /**
+     * Search quest names in a locale as well as in English. Its names are read when first searched, see QuestLibrary.getLocalizedNames
+     * @param locale a locale, e.g. "de". null for English only
+     * @throws IllegalArgumentException if the locale is not a valid locale name
+     */
+    void setLocale(String locale){
+        if (locale != null && ! ResourceManager.isValidLocale(locale)) throw new IllegalArgumentException(locale + " is not a valid locale!");
+        this.locale = locale;
+    }
 
-        MarkQuest[] typeHits = questLibrary.filterQuestOfType(typeFilter, include);
-        typeHits = questLibrary.sortQuestByTier(typeHits, false);
+    /**
+     * @return the names of the locale searched in a library, null if English only (or the locale has no name table)
+     */
+    private LocalizedNames localizedNames(QuestLibrary library){
+        return library.getLocalizedNames(locale);
+    }
 
-        MarkQuest[] dungeonHits = questLibrary.filterQuestOfDungeon(dungeonFilter, include);
-        dungeonHits = questLibrary.sortQuestByTier(dungeonHits, false);
+    /**
+     * Rank quests needing marks that tracked quests need as well higher, within the same amount of filter hits.
+     * @param progressBoost the weights of the tracker, null to stop boosting
+     */
+    void setProgressBoost(ProgressBoost progressBoost){
+        this.progressBoost = progressBoost;
+    }
 
-        MarkQuest[] nameHits = questLibrary.filterQuestOfName(words, include);
+    /**
+     * @return the current weights for the table searched, null if nothing is boosted. See ProgressBoost.weightsOf
+     */
+    private int[] currentWeights(QuestTable table){
+        ProgressBoost boost = progressBoost;
+        return boost == null ? null : boost.weightsOf(table);
+    }
 
-        //if it found nothing, show no/all quests
-        boolean noResults = 0 == (nameHits.length + dungeonFilter.length + typeHits.length);
+    /**
+     * Compile the ranking pipeline for a single search.
+     *
+     * @param ranking the ranking of the library searched
+     * @param match row ; amount of filters hit (0 to maxMatch), SearchCursor.NO_MATCH if no result
+     * @param maxMatch the most filters a quest can hit
+     * @return the scorer of the search
+     */
+    private RankingPipeline.Scorer compileScorer(Ranking ranking, IntUnaryOperator match, int maxMatch){
+        QuestTable table = ranking.library.getQuestTable();
+        return pipeline.compile(new RankingPipeline.Search(table, match, maxMatch, currentWeights(table), ranking.tierRankOfType));
+    }
 
-        if (noResults) { //return sorted by tier list of all
-            if (include) {
-                return new MarkQuest[]{};
-            } else return questLibrary.sortQuestByTier(questLibrary.getAllQuests(), false); //nothing matching to exclude --> include everything
+    /**
+     * @return the ranking of the current QuestLibrary snapshot
+     */
+    private Ranking currentRanking(){
+        QuestLibrary library = QuestLibrary.getInstance();
+        Ranking r = ranking;
+        if (r == null || r.library != library){ //two threads may both build it, both get a correct one
+            r = new Ranking(library);
+            ranking = r;
         }
+        return r;
+    }
 
-        if (include) {
-
-            //the union of these arrays has all eligible quests. But which are the most relevant?
-            MarkQuest[][] groupedHitsUnion;
-            groupedHitsUnion = hitsUnionSorted(nameHits, dungeonHits, typeHits);
-
-            return sortGroupsByType(groupedHitsUnion);
-        } else { //the intersection of these lists is only relevant
-
-            MarkQuest[] intersection = hitsIntersection(nameHits, dungeonHits, typeHits);
-            return questLibrary.sortQuestByTier(intersection, false); //no need for hit-relevancy sorting, since any hits mean exclusion from list
+    /**
+     * Paginated alternative to getEligibleQuests.
+     * Structured queries (see planQuery) are run through their QueryPlan instead.
+     *
+     * Ranks exactly like getEligibleQuests (on the same sort keys), but only ever ranks the pages scrolled to.
+     * Empty text matches every quest (by tier) on include, and none on exclude.
+     *
+     * @param text the user search string
+     * @param include to search for quests matching the text, or quests not matching it at all
+     * @param displayFilter quests failing this filter are left out of the results (active quests, scout quests)
+     * @return a cursor handing out the results page by page
+     */
+    SearchCursor openCursor(String text, boolean include, Predicate<MarkQuest> displayFilter){
+        if (QueryParser.isStructured(text)){
+            return openCursor(planQuery(text, include), displayFilter);
         }
 
+        Ranking ranking = currentRanking();
+        if (text.trim().isEmpty()){ //every quest, or none
+            if (! include) return SearchCursor.empty(ranking.library);
+            return new SearchCursor(ranking.library, row -> excludeKey(ranking, row, 0), key -> rowOfKey(key, false),
+                    row -> excludeBound(ranking, row, 0), displayFilter);
+        }
+        return search(ranking, text, include, displayFilter);
     }
 
-    private MarkQuest[] hitsIntersection(MarkQuest[] nameHits, MarkQuest[] dungeonHits, MarkQuest[] typeHits) {
-        ArrayList<MarkQuest> intersection = new ArrayList<>();
-        for (MarkQuest m : nameHits){
-            if (Arrays.asList(dungeonHits).contains(m) && Arrays.asList(typeHits).contains(m)){ //element is present in all 3, a.k.a. it does not mach the search term in any way.
-                intersection.add(m);
-            }
-        }
+    /**
+     * Run a structured search query, results ranked by the pipeline (every result hitting the same, single filter),
+     * then tier, then earlier library quest first.
+     *
+     * @param plan the planned query, see planQuery
+     * @param displayFilter quests failing this filter are left out of the results (active quests, scout quests)
+     * @return a cursor handing out the results page by page
+     */
+    SearchCursor openCursor(QueryPlan plan, Predicate<MarkQuest> displayFilter){
+        QuestLibrary questLibrary = plan.getLibrary(); //rows of the plan are rows of its own snapshot
+        Ranking current = currentRanking();
+        Ranking ranking = current.library == questLibrary ? current : new Ranking(questLibrary);
+
+        boolean[] matches = new boolean[questLibrary.getQuestTable().size()];
+        for (int row : plan.execute()) matches[row] = true;
+        RankingPipeline.Scorer scorer = compileScorer(ranking, row -> matches[row] ? 0 : SearchCursor.NO_MATCH, 0);
+        IntUnaryOperator score = scorer.score;
+        return new SearchCursor(questLibrary, row -> {
+            int s = score.applyAsInt(row);
+            return s == SearchCursor.NO_MATCH ? SearchCursor.NO_KEY : excludeKey(ranking, row, s);
+        }, key -> rowOfKey(key, false), row -> excludeBound(ranking, row, scorer.max), displayFilter);
+    }
 
-        return intersection.toArray(new MarkQuest[]{});
+    /**
+     * @return true if the search text uses structured query syntax (fields, quotes, parentheses, '-' or OR),
+     * see planQuery
+     */
+    boolean isStructuredQuery(String text){
+        return QueryParser.isStructured(text);
     }
 
-    private MarkQuest[] sortGroupsByType(MarkQuest[][] groupedHitsUnion){
-        ArrayList<MarkQuest> arr = new ArrayList<>();
+    /**
+     * Plan a structured search query, e.g. type:epic (dungeon:nest OR dungeon:shatters) -"pirate king"
+     * See QueryParser for the syntax.
+     *
+     * @param text the user search string, a structured query
+     * @param include to search for quests matching the query, or quests not matching it
+     * @return the plan of the query, run it with execute()
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    QueryPlan planQuery(String text, boolean include){
+        QuestLibrary library = QuestLibrary.getInstance();
+        return new QueryPlan(library, localizedNames(library), text, include);
+    }
 
-        for (MarkQuest[] m : groupedHitsUnion){
-            arr.addAll(Arrays.asList(questLibrary.sortQuestByTier(m, false)));
-        }
+    /**
+     * Clean up search text the way type, dungeon and quest names are compared against it, see NameNormalizer.
+     * @param text search text, in any language
+     * @return the text without [?!'.] and accents, case folded
+     */
+    static String normalize(String text){
+        return NameNormalizer.fold(text);
+    }
 
-        return arr.toArray(new MarkQuest[]{});
+    /**
+     * Get all quests matching (or on exclude: not matching) the search text, most relevant first.
+     *
+     * Include: ranked by the pipeline, on the amount of filters (name, dungeon, type) hit, then by tier.
+     * Exclude: only quests hitting no filter at all, ranked by the pipeline, then by tier.
+     *
+     * Visits each quest once, flagging its filter hits, then sorts the matches once on a key that
+     * reproduces the order of running the 3 filters separately and merging their results
+     * (see the key methods for the tie-breaks that come from that merge).
+     *
+     * @param text the user search string
+     * @param include to search for quests matching the text, or quests not matching it at all
+     * @return all eligible quests, sorted
+     */
+    MarkQuest[] getEligibleQuests(String text, boolean include){
+        return search(currentRanking(), text, include, q -> true).remaining();
     }
 
-    private MarkQuest[][] hitsUnionSorted(MarkQuest[] nameHits, MarkQuest[] dungeonHits, MarkQuest[] typeHits) {
-        ArrayList<Pair<MarkQuest,Integer>> toReturn = new ArrayList<>();
+    /**
+     * The search of both getEligibleQuests and openCursor, ranked on the keys of includeKey or excludeKey.
+     *
+     * @param ranking the ranking of the library searched
+     * @param text the user search string
+     * @param include to search for quests matching the text, or quests not matching it at all
+     * @param displayFilter quests failing this filter are left out of the results
+     * @return a cursor over the results
+     */
+    private SearchCursor search(Ranking ranking, String text, boolean include, Predicate<MarkQuest> displayFilter){
+        String[] words = sanitizeInput(text);
+        QuestLibrary questLibrary = ranking.library;
 
-        MarkQuest[][] hitLists = new MarkQuest[][]{nameHits, dungeonHits, typeHits};
+        String[] typeFilter = getTypeFilter(words);
+        String[] dungeonFilter = getDungeonFilter(words);
+        boolean[] typeMask = questLibrary.typeMask(typeFilter);
+        boolean[] dungeonMask = questLibrary.dungeonMask(dungeonFilter);
+        QuestTable table = questLibrary.getQuestTable();
+        LocalizedNames localized = localizedNames(questLibrary);
+
+        //the single pass: per quest, the amount of search words in its name and whether it hits the type/dungeon filters
+        int[] flags = new int[table.size()];
+        int nameHitCount = 0;
+        int typeHitCount = 0;
+        for (int row = 0; row < flags.length; row++){
+            int wordHits = 0;
+            for (String w : words){
+                if (table.searchableNameContains(row, w) || (localized != null && localized.contains(row, w))) wordHits++;
+            }
 
-        for (MarkQuest[] hitList : hitLists) {
-            for (MarkQuest i : hitList) {
-                boolean inList = false;
-                Pair<MarkQuest, Integer> toRemove = null;
-                for (Pair<MarkQuest, Integer> p : toReturn) {
-                    if (p.getKey().equals(i)) {
-                        inList = true;
-                        toRemove = p;
-                    }
-                }
-                if (!inList) {
-                    toReturn.add(new Pair<>(i, 1));
-                } else {
-                    toReturn.remove(toRemove);
-                    toRemove = new Pair<>(toRemove.getKey(), toRemove.getValue() + 1);
-                    toReturn.add(toRemove);
-                }
+            boolean dungeonHit = false;
+            for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+                if (dungeonMask[table.getReqDungeon(i)]) dungeonHit = true;
             }
+            boolean typeHit = typeMask[table.getTypeId(row)];
+
+            flags[row] = wordHits | (typeHit ? TYPE_HIT : 0) | (dungeonHit ? DUNGEON_HIT : 0);
+            if (wordHits > 0 == include) nameHitCount++;
+            if (typeHit == include) typeHitCount++;
         }
 
-        //now each markquest is paired with its hitcount
-        //sort on hits, ascending
-        Comparator<Pair<MarkQuest, Integer>> byHits =
-                Comparator.comparing(Pair::getValue);
-        toReturn.sort(byHits);
-        //now have sorted (ascending) list of search result hits, no duplicates.
-        //for each subgroup of hit counts, we want to sort by quest tier (descending).
-        //(A different method should handle this to keep it atomic, but we don't want hitAmount information to be lost)
-
-        Collections.reverse(toReturn); //make descending
-        return createGroupedUnionArray(toReturn);
-    }
-
-    private MarkQuest[][] createGroupedUnionArray(ArrayList<Pair<MarkQuest, Integer>> sortedArrayList){
-        ArrayList<ArrayList<MarkQuest>> groupSplitUnion = new ArrayList<>();
-
-        int current = sortedArrayList.get(0).getValue();
-        ArrayList<MarkQuest> toAdd = new ArrayList<>();
-        for (Pair<MarkQuest, Integer> p : sortedArrayList){
-            if (p.getValue() < current) { //found a new (always lower since sorted) value, create new group
-                current = p.getValue();
-                groupSplitUnion.add(toAdd);
-                toAdd = new ArrayList<>();
+        //if it found nothing, show no/all quests
+        boolean noResults = 0 == (nameHitCount + dungeonFilter.length + typeHitCount);
+        if (noResults) { //sorted by tier list of all
+            if (include) {
+                return SearchCursor.empty(questLibrary);
+            } else { //nothing matching to exclude --> include everything
+                return new SearchCursor(questLibrary, row -> excludeKey(ranking, row, 0), key -> rowOfKey(key, false),
+                        row -> excludeBound(ranking, row, 0), displayFilter);
             }
-
-            toAdd.add(p.getKey()); //add to current group
         }
-        groupSplitUnion.add(toAdd); //don't forget to add the last group
-        //convert to 2D array
-        ArrayList<MarkQuest[]> intermediate = new ArrayList<>();
-        for (ArrayList<MarkQuest> arr : groupSplitUnion){
-            intermediate.add(arr.toArray(new MarkQuest[]{}));
+
+        //sort keys of all eligible quests
+        RankingPipeline.Scorer scorer = compileScorer(ranking, row -> {
+            int hits = filterHits(flags[row]);
+            return hits > 0 == include ? (include ? hits : 0) : SearchCursor.NO_MATCH;
+        }, include ? 3 : 0);
+        IntUnaryOperator score = scorer.score;
+        return new SearchCursor(questLibrary, row -> {
+            int s = score.applyAsInt(row);
+            if (s == SearchCursor.NO_MATCH) return SearchCursor.NO_KEY;
+            return include ? includeKey(ranking, row, flags[row], s) : excludeKey(ranking, row, s);
+        }, key -> rowOfKey(key, include),
+                row -> include ? includeBound(ranking, row, scorer.max) : excludeBound(ranking, row, scorer.max), displayFilter);
+    }
+
+    /**
+     * @param f the flags of a quest, see getEligibleQuests
+     * @return the amount of filters (name, dungeon, type) it hits, 0 to 3
+     */
+    private static int filterHits(int f){
+        return ((f & WORD_HITS) > 0 ? 1 : 0) + ((f & TYPE_HIT) != 0 ? 1 : 0) + ((f & DUNGEON_HIT) != 0 ? 1 : 0);
+    }
+
+    /**
+     * Sort key (higher is earlier) of an eligible quest on include.
+     *
+     * From most to least significant:
+     * - score of the pipeline (by default filter hits, then boost)
+     * - tier
+     * - the last filter hit, in merge order name, dungeon, type (type last means first in the results)
+     * - on a type or dungeon hit: later library quest first.
+     *   on a name hit only: fewer search words in its name first, then earlier library quest first.
+     * The last two reproduce how the filter results used to be merged (re-appending a quest on every hit, then reversing).
+     *
+     * @param ranking the ranking of the library searched
+     * @param row the row of the quest
+     * @param f the flags of the quest, see getEligibleQuests
+     * @param score the score of the quest, see RankingPipeline.compile
+     * @return the sort key, holding the row in the lowest 31 bits
+     */
+    private static long includeKey(Ranking ranking, int row, int f, int score){
+        int wordHits = Math.min(f & WORD_HITS, MAX_WORD_HITS);
+        boolean typeHit = (f & TYPE_HIT) != 0;
+        boolean dungeonHit = (f & DUNGEON_HIT) != 0;
+        int lastFilter = typeHit ? 2 : (dungeonHit ? 1 : 0);
+
+        long key = score; //RankingPipeline.MAX_SCORE_BITS
+        key = (key << 7) | ranking.tierRank(row);
+        key = (key << 2) | lastFilter;
+        if (lastFilter > 0){
+            key = (key << 8);
+            key = (key << 31) | row;
+        } else {
+            key = (key << 8) | (MAX_WORD_HITS - wordHits);
+            key = (key << 31) | (Integer.MAX_VALUE - row);
         }
+        return key;
+    }
+
+    /**
+     * Sort key (higher is earlier) of an eligible quest on exclude: score of the pipeline, tier, then earlier library quest first.
+     *
+     * @param ranking the ranking of the library searched
+     * @param row the row of the quest
+     * @param score the score of the quest, see RankingPipeline.compile
+     * @return the sort key, holding the row in the lowest 31 bits
+     */
+    private static long excludeKey(Ranking ranking, int row, int score){
+        return ((long) score << (7 + 31)) | ((long) ranking.tierRank(row) << 31) | (Integer.MAX_VALUE - row);
+    }
 
-        return intermediate.toArray(new MarkQuest[][]{});
+    /**
+     * @param maxScore the highest score of the search
+     * @return the highest includeKey any quest of the tier of a row can have, see SearchCursor
+     */
+    private static long includeBound(Ranking ranking, int row, int maxScore){
+        long key = ((long) maxScore << 7) | ranking.tierRank(row);
+        return (key << (2 + 8 + 31)) | ((1L << (2 + 8 + 31)) - 1);
+    }
 
+    /**
+     * @param maxScore the highest score of the search
+     * @return the highest excludeKey any quest of the tier of a row can have, see SearchCursor
+     */
+    private static long excludeBound(Ranking ranking, int row, int maxScore){
+        return excludeKey(ranking, row, maxScore) | Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param key a key made by includeKey (include) or excludeKey (exclude)
+     * @return the row of the quest the key belongs to
+     */
+    private static int rowOfKey(long key, boolean include){
+        int low = (int) (key & Integer.MAX_VALUE);
+        if (include && ((key >>> (31 + 8)) & 3) > 0){ //last filter hit was type or dungeon, row stored as-is
+            return low;
+        }
+        return Integer.MAX_VALUE - low;
     }
 
     private String[] getDungeonFilter(String[] words) {
@@ -150,7 +396,7 @@ class SearchManager {
 
         for (String d : resourceManager.getDungeons()) {
             for (String w : words) {
-                if (d.toLowerCase().replaceAll("[?!'.]","").contains(w)) {
+                if (normalize(d).contains(w)) {
                     dungeonFilter.add(d); //do not add word; case sensitivity
                 }
             }
@@ -166,7 +412,7 @@ class SearchManager {
 
         for (String t: resourceManager.getTypes()){
             for (String w : words){
-                if (t.toLowerCase().replaceAll("[?!'.]","").contains(w)){
+                if (normalize(t).contains(w)){
                     typeFilter.add(t); //do not add word; case sensitivity
                 }
             }
@@ -176,10 +422,8 @@ class SearchManager {
     }
 
     private String[] sanitizeInput(String text) {
-        text = text.trim();
-        text = text.toLowerCase();
-        text = text.replaceAll("[?!'.]","");
-        String[] txt = text.split(" ");
+        text = normalize(text.trim());
+        String[] txt = text.split("[\\s\\p{Z}]"); //any space, as in other languages
         ArrayList<String> toReturn = new ArrayList<>();
         //remove empty search words (user did double spaces)
         for (String s : txt){
@@ -0,0 +1,66 @@
+package GUI;
+
+import ResourceLoader.ResourceManager;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hands out mark sprites in the pixel format of the display they are drawn on.
+ *
+ * Sprites straight from ResourceManager are subimages of the sprite sheet,
+ * which Java2D may have to convert on every draw (software blit). Here each sprite is copied once
+ * into an image compatible with a GraphicsConfiguration, which Java2D can cache on the graphics card (managed image).
+ *
+ * There is one renderer per GraphicsConfiguration. A component moved to another screen,
+ * or shown after the display configuration changed, gets a different GraphicsConfiguration and with it new sprites.
+ * Without a display (headless, or a component not shown yet) the sprites of ResourceManager are used as-is.
+ */
+class SpriteRenderer {
+
+    private static final Map<GraphicsConfiguration, SpriteRenderer> renderers = new WeakHashMap<>(); //dropped with their configuration
+    private static final SpriteRenderer headless = new SpriteRenderer(null);
+
+    private final GraphicsConfiguration configuration; //null: no display
+    private final HashMap<String, Image> sprites = new HashMap<>(); //dungeon ; sprite, created on first use
+
+    private SpriteRenderer(GraphicsConfiguration configuration){
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param configuration the GraphicsConfiguration of the component drawing, null if it has none
+     * @return the renderer for that configuration
+     */
+    static synchronized SpriteRenderer forConfiguration(GraphicsConfiguration configuration){
+        if (configuration == null) return headless;
+        return renderers.computeIfAbsent(configuration, SpriteRenderer::new);
+    }
+
+    /**
+     * @param dungeon a valid dungeon name
+     * @return the mark sprite of that dungeon, in the format of this renderer's display
+     */
+    synchronized Image getSprite(String dungeon){
+        Image sprite = sprites.get(dungeon);
+        if (sprite == null){
+            sprite = toCompatible(ResourceManager.getInstance().getSprite(dungeon));
+            sprites.put(dungeon, sprite);
+        }
+        return sprite;
+    }
+
+    private Image toCompatible(BufferedImage sprite){
+        if (configuration == null) return sprite; //no display to be compatible with
+
+        BufferedImage compatible = configuration.createCompatibleImage(sprite.getWidth(), sprite.getHeight(), Transparency.TRANSLUCENT);
+        Graphics2D g = compatible.createGraphics();
+        g.setComposite(AlphaComposite.Src); //copy pixels including transparency
+        g.drawImage(sprite, 0, 0, null);
+        g.dispose();
+        return compatible;
+    }
+}
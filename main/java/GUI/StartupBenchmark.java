@@ -0,0 +1,70 @@
+package GUI;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records when startup milestones are reached, and reports them once the first search has been drawn.
+ *
+ * Milestones (see the constants) are recorded the first time they happen only, in ms since the JVM started.
+ * Reporting is off unless the BENCHMARK_PROPERTY system property is set:
+ * -Dmarktracker.startupBenchmark        report the milestones after the first search the user makes
+ * -Dmarktracker.startupBenchmark=auto   search by itself as soon as the main window is shown, report, then exit
+ */
+class StartupBenchmark {
+
+    static final String BENCHMARK_PROPERTY = "marktracker.startupBenchmark";
+    static final String AUTO_SEARCH = "the"; //search made in auto mode, matches many quests
+
+    static final String MAIN = "main() entered";
+    static final String FIRST_WINDOW = "first window shown";
+    static final String WARMUP_DONE = "warm-up done";
+    static final String SELECTOR_READY = "quest selector built";
+    static final String FIRST_SEARCH = "first search drawn";
+
+    private static final String MODE = System.getProperty(BENCHMARK_PROPERTY);
+    private static final LinkedHashMap<String, Long> milestones = new LinkedHashMap<>(); //milestone ; ms since JVM start
+    private static boolean reported = false;
+
+    private StartupBenchmark(){
+        //static methods only
+    }
+
+    /**
+     * @return whether the benchmark searches by itself and exits after reporting
+     */
+    static boolean isAuto(){
+        return "auto".equals(MODE);
+    }
+
+    /**
+     * Record that a milestone was reached, if it was not reached before.
+     * Reports (if enabled) once the first search has been drawn.
+     *
+     * @param milestone one of the milestone constants
+     */
+    static synchronized void reached(String milestone){
+        if (milestones.containsKey(milestone)) return;
+        milestones.put(milestone, ManagementFactory.getRuntimeMXBean().getUptime());
+
+        if (milestone.equals(FIRST_SEARCH) && MODE != null && ! reported){
+            reported = true;
+            report();
+            if (isAuto()) System.exit(0);
+        }
+    }
+
+    private static void report(){
+        StringBuilder sb = new StringBuilder("Startup benchmark (ms since JVM start):\n");
+        for (Map.Entry<String, Long> e : milestones.entrySet()){
+            sb.append(String.format("  %-22s %6d%n", e.getKey(), e.getValue()));
+        }
+        Long main = milestones.get(MAIN);
+        Long window = milestones.get(FIRST_WINDOW);
+        Long search = milestones.get(FIRST_SEARCH);
+        if (main != null && window != null) sb.append("  time to first window:  ").append(window - main).append(" ms after main()\n");
+        if (main != null && search != null) sb.append("  time to first search:  ").append(search - main).append(" ms after main()\n");
+        System.out.print(sb);
+    }
+}
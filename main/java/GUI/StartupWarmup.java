@@ -0,0 +1,103 @@
+package GUI;
+
+import MarkData.QuestLibrary;
+import MarkData.QuestTable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * Runs representative searches and builds quest rows in the background right after startup,
+ * so that the JIT has compiled the search and drawing code before the user types the first search.
+ *
+ * Searches run on a low priority background thread (which also loads the quest library and sprites off the EDT).
+ * Rows are Swing components, so they are built and painted on the EDT, in small chunks that leave room for user input.
+ */
+class StartupWarmup {
+
+    private static final int SEARCH_ROUNDS = 30; //times every warm-up search is run
+    private static final int ROW_BUILDS = 600; //quest rows built and painted
+    private static final int ROWS_PER_CHUNK = 20; //rows built per EDT event
+
+    private StartupWarmup(){
+        //static methods only
+    }
+
+    /**
+     * Start warming up. Returns immediately.
+     *
+     * @param whenDone run on the EDT once warm-up is done, may be null
+     */
+    static void start(Runnable whenDone){
+        Thread thread = new Thread(() -> {
+            warmUpSearches();
+            SwingUtilities.invokeLater(() -> warmUpRows(0, whenDone));
+        }, "StartupWarmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY); //never compete with the EDT
+        thread.start();
+    }
+
+    /**
+     * Search for words of quest names, types and dungeons, plain and structured, include and exclude.
+     */
+    private static void warmUpSearches(){
+        QuestLibrary library = QuestLibrary.getInstance();
+        QuestTable table = library.getQuestTable();
+        SearchManager searchManager = new SearchManager();
+
+        ArrayList<String> queries = new ArrayList<>();
+        for (int row = 0; row < table.size(); row += Math.max(1, table.size() / 20)){
+            String[] words = table.getName(row).split(" ");
+            queries.add(words[0]);
+            queries.add(words[0].substring(0, 1)); //first keystroke
+        }
+        for (int t = 0; t < table.getTypeCount(); t++){
+            queries.add(table.getTypeName(t));
+            queries.add("type:" + table.getTypeName(t) + " -name:the");
+        }
+        for (int d = 0; d < table.getDungeonCount(); d += 3){
+            queries.add(table.getDungeonName(d));
+            queries.add("dungeon:" + table.getDungeonName(d) + " OR type:epic");
+        }
+
+        for (int round = 0; round < SEARCH_ROUNDS; round++){
+            for (String q : queries){
+                for (boolean include : new boolean[]{true, false}){
+                    searchManager.openCursor(q, include, quest -> true).nextPage(15);
+                    if (! searchManager.isStructuredQuery(q)){
+                        searchManager.getEligibleQuests(q, include);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Build and paint quest mark rows off-screen, a chunk per EDT event.
+     */
+    private static void warmUpRows(int built, Runnable whenDone){
+        QuestLibrary library = QuestLibrary.getInstance();
+        int quests = library.getQuestTable().size();
+        BufferedImage canvas = new BufferedImage(160, 80, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = canvas.createGraphics();
+
+        int end = Math.min(ROW_BUILDS, built + ROWS_PER_CHUNK);
+        for (int i = built; i < end && quests > 0; i++){
+            MarkStrip strip = new MarkStrip(library.getQuest(i % quests).getCompletionReq(), false);
+            strip.setSize(strip.getPreferredSize());
+            strip.paint(g);
+            ToolTipManager.sharedInstance().unregisterComponent(strip); //never shown
+        }
+        g.dispose();
+
+        if (end < ROW_BUILDS && quests > 0){
+            SwingUtilities.invokeLater(() -> warmUpRows(end, whenDone)); //let user input in between
+        } else {
+            StartupBenchmark.reached(StartupBenchmark.WARMUP_DONE);
+            if (whenDone != null) whenDone.run();
+        }
+    }
+}
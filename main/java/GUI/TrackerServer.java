@@ -0,0 +1,405 @@
+package GUI;
+
+import MarkData.Completability;
+import MarkData.MarkQuest;
+import MarkData.MarkRequirement;
+import MarkData.QuestLibrary;
+import ResourceLoader.ResourceManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Local HTTP server exposing quest search, mark sprites and the currently tracking quests as JSON,
+ * for tools running next to MarkTracker (stream overlays, bots).
+ *
+ * Only listens on the loopback address, so only programs on this computer can reach it.
+ *
+ * Endpoints (GET only):
+ * /search?q=text[&exclude=true][&limit=n][&locale=l]   quests matching the search text, same ranking as the search box.
+ *                                           With a locale, quest names in that locale match as well
+ * /sprite/Dungeon                           mark sprite of a dungeon, as PNG
+ * /tracked                                  currently tracking quests, with the marks each still needs
+ * /completable?Dungeon=n[&Dungeon=n...]      quests completable with the marks given, and quests a single run away
+ *
+ * Every response has an ETag, a request with a matching If-None-Match gets an empty 304 Not Modified.
+ * Search results and sprites never change while running, so they are cached.
+ * The tracked quests are only read from the GUI when they changed since the ETag the client has.
+ */
+class TrackerServer {
+
+    //system property holding the port to serve on, see MarkTrackerGUI.main. Optional.
+    static final String PORT_PROPERTY = "marktracker.server.port";
+
+    private static final int BACKLOG = 1024; //pending connections allowed, many clients may connect at once
+    private static final int DEFAULT_LIMIT = 50; //search results returned if no limit is given
+    private static final int SEARCH_CACHE_SIZE = 256; //distinct searches kept
+    private static final int LOCALE_CACHE_SIZE = 16; //search managers of distinct locales kept
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final SearchManager searchManager; //searches without a locale parameter
+    private final LinkedHashMap<String, SearchManager> localeSearchManagers; //locale ; its search manager, least recently used first
+    private final MarkTrackerGUI tracker; //null: no GUI, nothing is being tracked
+
+    private final ConcurrentHashMap<String, Response> sprites = new ConcurrentHashMap<>(); //dungeon ; PNG response
+    private final LinkedHashMap<String, Response> searches; //search key ; response, least recently used first
+
+    /**
+     * A response body, with its ETag
+     */
+    private static class Response {
+        final byte[] body;
+        final String contentType;
+        final String etag;
+
+        Response(byte[] body, String contentType, String etag){
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = etag;
+        }
+
+        Response(byte[] body, String contentType){
+            this(body, contentType, etagOf(body));
+        }
+    }
+
+    /**
+     * Create the server, not started yet.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param tracker the tracker whose active quests are served, null if there is none
+     * @throws IOException if the port could not be bound
+     */
+    TrackerServer(int port, MarkTrackerGUI tracker) throws IOException {
+        this.tracker = tracker;
+        this.searchManager = new SearchManager();
+        this.localeSearchManagers = new LinkedHashMap<String, SearchManager>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SearchManager> eldest) {
+                return size() > LOCALE_CACHE_SIZE;
+            }
+        };
+        this.searches = new LinkedHashMap<String, Response>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+                return size() > SEARCH_CACHE_SIZE;
+            }
+        };
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        //handlers are short and never block on each other: a thread per core (x2) keeps up with many connections,
+        //the server accepts and queues them on its own dispatcher thread
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2), r -> {
+            Thread t = new Thread(r, "TrackerServer-" + threads.incrementAndGet());
+            t.setDaemon(true); //do not keep the program running after the GUI is closed
+            return t;
+        });
+        server.setExecutor(executor);
+
+        server.createContext("/search", exchange -> handle(exchange, () -> search(exchange)));
+        server.createContext("/sprite/", exchange -> handle(exchange, () -> sprite(exchange)));
+        server.createContext("/tracked", exchange -> handle(exchange, () -> tracked(exchange)));
+        server.createContext("/completable", exchange -> handle(exchange, () -> completable(exchange)));
+    }
+
+    void start(){
+        server.start();
+        System.out.println("MarkTracker server listening on http://" + getAddress().getHostString() + ":" + getAddress().getPort());
+    }
+
+    void stop(){
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return the address the server listens on, with the actual port if started on port 0
+     */
+    InetSocketAddress getAddress(){
+        return server.getAddress();
+    }
+
+    /**
+     * Produces the response of a request.
+     * Throws IllegalArgumentException if the request is bad, FileNotFoundException if it asks for something unknown.
+     */
+    private interface Endpoint {
+        Response respond() throws IOException;
+    }
+
+    //common handling of every request: method check, errors, conditional GET
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try {
+            if (! exchange.getRequestMethod().equals("GET")){
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+
+            Response response;
+            try {
+                response = endpoint.respond();
+            } catch (IllegalArgumentException e){ //bad parameter, invalid search query
+                sendError(exchange, 400, e.getMessage());
+                return;
+            } catch (FileNotFoundException e){ //unknown dungeon
+                sendError(exchange, 404, e.getMessage());
+                return;
+            }
+
+            exchange.getResponseHeaders().set("ETag", response.etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache"); //may be cached, but ask (with the ETag) before use
+            if (response.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))){
+                exchange.sendResponseHeaders(304, -1); //client has it already
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", response.contentType);
+            exchange.sendResponseHeaders(200, response.body.length);
+            try (OutputStream out = exchange.getResponseBody()){
+                out.write(response.body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JSONObject error = new JSONObject();
+        put(error, "error", message);
+        byte[] body = error.toJSONString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+
+    /**
+     * /search?q=text[&exclude=true][&limit=n][&locale=l]
+     */
+    private Response search(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String text = params.getOrDefault("q", "");
+        boolean exclude = Boolean.parseBoolean(params.getOrDefault("exclude", "false"));
+        int limit;
+        try {
+            limit = Integer.parseInt(params.getOrDefault("limit", DEFAULT_LIMIT + ""));
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("limit must be a number");
+        }
+
+        String locale = params.get("locale");
+        SearchManager searchManager = searchManagerOf(locale);
+
+        String key = exclude + "|" + limit + "|" + locale + "|" + text;
+        synchronized (searches){
+            Response cached = searches.get(key);
+            if (cached != null) return cached;
+        }
+
+        MarkQuest[] results;
+        int total;
+        if (searchManager.isStructuredQuery(text)){ //see QueryParser
+            QueryPlan plan = searchManager.planQuery(text, ! exclude);
+            SearchCursor cursor = searchManager.openCursor(plan, q -> true);
+            results = cursor.nextPage(limit);
+            total = plan.getResultCount();
+        } else {
+            results = searchManager.getEligibleQuests(text, ! exclude);
+            total = results.length;
+        }
+
+        JSONArray arr = new JSONArray();
+        for (int i = 0; i < results.length && i < limit; i++){
+            add(arr, toJSON(results[i]));
+        }
+        JSONObject json = new JSONObject();
+        put(json, "total", total);
+        put(json, "quests", arr);
+
+        Response response = jsonResponse(json.toJSONString());
+        synchronized (searches){
+            searches.put(key, response);
+        }
+        return response;
+    }
+
+    /**
+     * @param locale the locale parameter of a search, null if none
+     * @return the search manager searching that locale
+     * @throws IllegalArgumentException if the locale is not a valid locale name
+     */
+    private SearchManager searchManagerOf(String locale){
+        if (locale == null) return searchManager;
+        synchronized (localeSearchManagers){
+            SearchManager m = localeSearchManagers.get(locale);
+            if (m == null){
+                m = new SearchManager();
+                m.setLocale(locale);
+                localeSearchManagers.put(locale, m);
+            }
+            return m;
+        }
+    }
+
+    /**
+     * /sprite/Dungeon
+     */
+    private Response sprite(HttpExchange exchange) throws IOException {
+        String dungeon = exchange.getRequestURI().getPath().substring("/sprite/".length()); //getPath is decoded
+        try {
+            ResourceManager.getInstance().assertValidDungeon(dungeon);
+        } catch (IllegalArgumentException e){
+            throw new FileNotFoundException("Unknown dungeon " + dungeon);
+        }
+
+        Response cached = sprites.get(dungeon);
+        if (cached != null) return cached;
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(ResourceManager.getInstance().getSprite(dungeon), "png", png);
+        Response response = new Response(png.toByteArray(), "image/png");
+        sprites.put(dungeon, response); //two requests may encode the same sprite, no harm done
+        return response;
+    }
+
+    /**
+     * /tracked
+     *
+     * Reads the tracker on the Event Dispatch Thread, but only if it changed since the version the client has.
+     */
+    private Response tracked(HttpExchange exchange) throws IOException {
+        if (tracker == null){
+            return jsonResponse(new JSONArray().toJSONString());
+        }
+
+        String etag = "\"t" + tracker.getTrackingVersion() + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))){
+            return new Response(new byte[]{}, "application/json; charset=utf-8", etag); //handle() answers 304
+        }
+
+        Response[] response = new Response[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> { //GUI state may only be read on the EDT
+                JSONArray arr = new JSONArray();
+                for (MarkTrackerGUI.TrackedQuest t : tracker.getTrackedQuests()){
+                    JSONObject quest = toJSON(t.getQuest());
+                    put(quest, "outstanding", new JSONObject(t.getOutstandingMarks()));
+                    add(arr, quest);
+                }
+                byte[] body = arr.toJSONString().getBytes(StandardCharsets.UTF_8);
+                response[0] = new Response(body, "application/json; charset=utf-8", "\"t" + tracker.getTrackingVersion() + "\"");
+            });
+        } catch (InterruptedException | InvocationTargetException e){
+            throw new IOException("Could not read tracked quests", e);
+        }
+        return response[0];
+    }
+
+    /**
+     * /completable?Dungeon=n[&Dungeon=n...]
+     *
+     * Not cached: answered from the index of the current library, see Completability.
+     */
+    private Response completable(HttpExchange exchange) throws UnsupportedEncodingException {
+        HashMap<String, Integer> inventory = new HashMap<>();
+        for (Map.Entry<String, String> p : parseQuery(exchange.getRequestURI().getRawQuery()).entrySet()){
+            try {
+                inventory.put(p.getKey(), Integer.parseInt(p.getValue()));
+            } catch (NumberFormatException e){
+                throw new IllegalArgumentException("Amount of " + p.getKey() + " must be a number");
+            }
+        }
+        Completability.Result result = QuestLibrary.getInstance().getCompletability().query(inventory); //bad dungeons: IllegalArgumentException
+
+        JSONArray completable = new JSONArray();
+        for (MarkQuest q : result.getCompletable()){
+            add(completable, toJSON(q));
+        }
+        JSONArray oneRunAway = new JSONArray();
+        MarkQuest[] away = result.getOneRunAway();
+        String[] missing = result.getMissingDungeons();
+        for (int i = 0; i < away.length; i++){
+            JSONObject quest = toJSON(away[i]);
+            put(quest, "missing", missing[i]);
+            add(oneRunAway, quest);
+        }
+        JSONObject json = new JSONObject();
+        put(json, "completable", completable);
+        put(json, "oneRunAway", oneRunAway);
+        return jsonResponse(json.toJSONString());
+    }
+
+    private JSONObject toJSON(MarkQuest q){
+        JSONObject quest = new JSONObject();
+        put(quest, "id", q.getRow());
+        put(quest, "name", q.getName());
+        put(quest, "type", q.getType());
+        JSONObject marks = new JSONObject();
+        for (MarkRequirement req : q.getCompletionReq()){
+            put(marks, req.getMarkType(), req.getAmount());
+        }
+        put(quest, "marks", marks);
+        return quest;
+    }
+
+    //JSONObject and JSONArray are raw collections (json-simple): these two are the only unchecked calls on them
+
+    @SuppressWarnings("unchecked")
+    private static void put(JSONObject json, String key, Object value){
+        json.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void add(JSONArray json, Object value){
+        json.add(value);
+    }
+
+    private static Response jsonResponse(String json){
+        return new Response(json.getBytes(StandardCharsets.UTF_8), "application/json; charset=utf-8");
+    }
+
+    //strong ETag from the content, the same body always gets the same ETag
+    private static String etagOf(byte[] body){
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + body.length + "\"";
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        HashMap<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")){
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq == -1 ? pair : pair.substring(0, eq), "UTF-8");
+            String value = eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            params.put(name, value);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,373 @@
+package MarkData;
+
+import ResourceLoader.ResourceManager;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Answers "which quests can I complete with the marks I have", and "which are a single run away".
+ *
+ * A quest is completable if the inventory holds at least the required amount of every dungeon it requires.
+ * It is one run away if it misses exactly one mark (a run of a dungeon gives one mark): that dungeon is its missing dungeon.
+ *
+ * Built once per QuestLibrary (see QuestLibrary.getCompletability): for each dungeon, its requirements sorted by amount.
+ * With those, an inventory only visits the requirements it satisfies or is one mark short of:
+ * a binary search per dungeon finds where they end, the rest of the catalog is never looked at.
+ *
+ * query answers a single inventory. An Inventory (see newInventory) is kept up to date mark by mark instead,
+ * each mark only visiting the requirements of its dungeon needing exactly that many marks.
+ *
+ * The index is immutable and query is safe to use from any thread, an Inventory is not.
+ */
+public class Completability {
+
+    private final QuestTable table;
+    private final IntFunction<MarkQuest> questOf; //row ; quest
+    private final int[] distinct; //row ; amount of distinct dungeons it requires
+    private final int[] entryStart; //dungeon id ; index of its first entry, entryStart[dungeonCount] is the end
+    private final int[] entryAmount; //entry ; amount required, ascending within a dungeon
+    private final int[] entryRow; //entry ; row requiring it
+    private final int[] noRequirements; //rows requiring no marks at all: always completable
+    private final ThreadLocal<Counts> scratch;
+
+    /**
+     * Per row: dungeons with enough marks, dungeons one mark short, and the sum of the ids of the latter
+     * (which is the id of the missing dungeon if there is just one).
+     */
+    private static class Counts {
+        final int[] satisfied;
+        final int[] shortCount;
+        final int[] shortSum;
+        final int[] touched; //rows with any count, first 'count' are valid (query only)
+        int count;
+
+        Counts(int rows){
+            satisfied = new int[rows];
+            shortCount = new int[rows];
+            shortSum = new int[rows];
+            touched = new int[rows];
+        }
+    }
+
+    /**
+     * The quests an inventory completes, or is a run away from completing. Immutable.
+     */
+    public static class Result {
+        private final MarkQuest[] completable;
+        private final MarkQuest[] oneRunAway;
+        private final String[] missingDungeons;
+
+        Result(MarkQuest[] completable, MarkQuest[] oneRunAway, String[] missingDungeons){
+            this.completable = completable;
+            this.oneRunAway = oneRunAway;
+            this.missingDungeons = missingDungeons;
+        }
+
+        /**
+         * @return the quests completable with the inventory, in library order
+         */
+        public MarkQuest[] getCompletable() {
+            return completable.clone();
+        }
+
+        /**
+         * @return the quests a single mark away, in library order
+         */
+        public MarkQuest[] getOneRunAway() {
+            return oneRunAway.clone();
+        }
+
+        /**
+         * @return the dungeon each quest of getOneRunAway (same index) needs one more run of
+         */
+        public String[] getMissingDungeons() {
+            return missingDungeons.clone();
+        }
+    }
+
+    /**
+     * Build the index of a library. Costs sorting all requirements.
+     *
+     * @param table the quests of the library
+     * @param questOf the quest of a row of the table
+     */
+    Completability(QuestTable table, IntFunction<MarkQuest> questOf){
+        this.table = table;
+        this.questOf = questOf;
+        int rows = table.size();
+        int dungeons = table.getDungeonCount();
+
+        //a quest listing a dungeon twice needs the sum of both
+        distinct = new int[rows];
+        int[] amountOf = new int[dungeons];
+        int[] dungeonsOfRow = new int[dungeons];
+        int[] entryCount = new int[dungeons];
+        int noReqs = 0;
+        for (int row = 0; row < rows; row++){
+            distinct[row] = mergeRow(row, amountOf, dungeonsOfRow);
+            for (int i = 0; i < distinct[row]; i++){
+                entryCount[dungeonsOfRow[i]]++;
+                amountOf[dungeonsOfRow[i]] = 0;
+            }
+            if (distinct[row] == 0) noReqs++;
+        }
+
+        entryStart = new int[dungeons + 1];
+        for (int d = 0; d < dungeons; d++){
+            entryStart[d + 1] = entryStart[d] + entryCount[d];
+        }
+        long[] entries = new long[entryStart[dungeons]]; //amount in the high half, row in the low: sorts by amount, then row
+        int[] next = Arrays.copyOf(entryStart, dungeons);
+        noRequirements = new int[noReqs];
+        noReqs = 0;
+        for (int row = 0; row < rows; row++){
+            mergeRow(row, amountOf, dungeonsOfRow);
+            for (int i = 0; i < distinct[row]; i++){
+                int d = dungeonsOfRow[i];
+                entries[next[d]++] = ((long) amountOf[d] << 32) | row;
+                amountOf[d] = 0;
+            }
+            if (distinct[row] == 0) noRequirements[noReqs++] = row;
+        }
+
+        entryAmount = new int[entries.length];
+        entryRow = new int[entries.length];
+        for (int d = 0; d < dungeons; d++){
+            Arrays.sort(entries, entryStart[d], entryStart[d + 1]);
+        }
+        for (int e = 0; e < entries.length; e++){
+            entryAmount[e] = (int) (entries[e] >> 32);
+            entryRow[e] = (int) entries[e];
+        }
+
+        scratch = ThreadLocal.withInitial(() -> new Counts(rows));
+    }
+
+    //add up the amounts of each dungeon of a row, callers reset amountOf. Returns the amount of distinct dungeons
+    private int mergeRow(int row, int[] amountOf, int[] dungeonsOfRow){
+        int count = 0;
+        for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+            int d = table.getReqDungeon(i);
+            if (amountOf[d] == 0) dungeonsOfRow[count++] = d;
+            amountOf[d] += Math.max(1, table.getReqAmount(i)); //at least 1: an empty inventory satisfies nothing
+        }
+        return count;
+    }
+
+    /**
+     * @return the first entry of a dungeon requiring at least this amount (the end of the dungeon if there is none)
+     */
+    private int firstAtLeast(int dungeon, int amount){
+        int low = entryStart[dungeon];
+        int high = entryStart[dungeon + 1];
+        while (low < high){
+            int mid = (low + high) >>> 1;
+            if (entryAmount[mid] < amount) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Find the quests completable with an inventory, and the ones a single mark away.
+     *
+     * @param inventory dungeon ; amount of marks held. Dungeons left out are held 0 times.
+     * @return the completable and one run away quests
+     * @throws IllegalArgumentException if a dungeon is not valid, or an amount is negative
+     */
+    public Result query(Map<String, Integer> inventory){
+        int[] have = new int[table.getDungeonCount()];
+        for (Map.Entry<String, Integer> e : inventory.entrySet()){
+            ResourceManager.getInstance().assertValidDungeon(e.getKey());
+            if (e.getValue() < 0) throw new IllegalArgumentException("Cannot hold " + e.getValue() + " marks of " + e.getKey() + "!");
+            int d = table.getDungeonIdOf(e.getKey());
+            if (d != -1) have[d] = e.getValue(); //-1: valid dungeon no quest requires
+        }
+
+        Counts c = scratch.get();
+        c.count = 0;
+        for (int d = 0; d < have.length; d++){
+            int enough = firstAtLeast(d, have[d] + 1); //entries before this one need at most what is held
+            int oneShort = firstAtLeast(d, have[d] + 2); //entries from enough up to this one need one more
+            for (int e = entryStart[d]; e < enough; e++){
+                int row = entryRow[e];
+                if (c.satisfied[row] == 0 && c.shortCount[row] == 0) c.touched[c.count++] = row;
+                c.satisfied[row]++;
+            }
+            for (int e = enough; e < oneShort; e++){
+                int row = entryRow[e];
+                if (c.satisfied[row] == 0 && c.shortCount[row] == 0) c.touched[c.count++] = row;
+                c.shortCount[row]++;
+                c.shortSum[row] += d;
+            }
+        }
+
+        //only the rows touched are looked at, sorted afterwards into library order
+        int[] completable = Arrays.copyOf(noRequirements, noRequirements.length + c.count);
+        int completableCount = noRequirements.length;
+        long[] oneRunAway = new long[c.count]; //row in the high half, missing dungeon in the low
+        int oneRunAwayCount = 0;
+        for (int i = 0; i < c.count; i++){
+            int row = c.touched[i];
+            if (c.satisfied[row] == distinct[row]){
+                completable[completableCount++] = row;
+            } else if (c.satisfied[row] == distinct[row] - 1 && c.shortCount[row] == 1){
+                oneRunAway[oneRunAwayCount++] = ((long) row << 32) | c.shortSum[row];
+            }
+            c.satisfied[row] = 0; //clean for the next query
+            c.shortCount[row] = 0;
+            c.shortSum[row] = 0;
+        }
+        Arrays.sort(completable, 0, completableCount);
+        Arrays.sort(oneRunAway, 0, oneRunAwayCount);
+
+        MarkQuest[] completableQuests = new MarkQuest[completableCount];
+        for (int i = 0; i < completableCount; i++){
+            completableQuests[i] = questOf.apply(completable[i]);
+        }
+        MarkQuest[] away = new MarkQuest[oneRunAwayCount];
+        String[] missingDungeons = new String[oneRunAwayCount];
+        for (int i = 0; i < oneRunAwayCount; i++){
+            away[i] = questOf.apply((int) (oneRunAway[i] >>> 32));
+            missingDungeons[i] = table.getDungeonName((int) oneRunAway[i]);
+        }
+        return new Result(completableQuests, away, missingDungeons);
+    }
+
+    private MarkQuest[] toQuests(BitSet rows){
+        return rows.stream().mapToObj(row -> questOf.apply(row)).toArray(MarkQuest[]::new);
+    }
+
+    /**
+     * @return a new, empty inventory of this library, to add marks to one at a time
+     */
+    public Inventory newInventory(){
+        return new Inventory();
+    }
+
+    /**
+     * Marks held, with the quests they complete kept up to date as marks are added and removed one at a time.
+     * Not thread-safe.
+     */
+    public class Inventory {
+        private final int[] have = new int[table.getDungeonCount()]; //dungeon id ; marks held
+        private final Counts counts = new Counts(table.size());
+        private final BitSet completable = new BitSet(table.size());
+        private final BitSet oneRunAway = new BitSet(table.size());
+
+        private Inventory(){
+            //nothing held: requirements of a single mark are one short
+            for (int d = 0; d < have.length; d++){
+                for (int e = entryStart[d]; e < firstAtLeast(d, 2); e++){
+                    counts.shortCount[entryRow[e]]++;
+                    counts.shortSum[entryRow[e]] += d;
+                }
+            }
+            for (int row = 0; row < table.size(); row++){
+                classify(row);
+            }
+        }
+
+        /**
+         * Add a single mark.
+         * @param dungeon a valid dungeon name
+         */
+        public void add(String dungeon){
+            int d = idOf(dungeon);
+            if (d == -1) return; //valid dungeon no quest requires
+            int held = ++have[d];
+
+            //requirements of exactly this many are satisfied now, of one more are one short now
+            int start = firstAtLeast(d, held);
+            int mid = firstAtLeast(d, held + 1);
+            int end = firstAtLeast(d, held + 2);
+            for (int e = start; e < mid; e++){
+                int row = entryRow[e];
+                counts.satisfied[row]++;
+                counts.shortCount[row]--;
+                counts.shortSum[row] -= d;
+                classify(row);
+            }
+            for (int e = mid; e < end; e++){
+                int row = entryRow[e];
+                counts.shortCount[row]++;
+                counts.shortSum[row] += d;
+                classify(row);
+            }
+        }
+
+        /**
+         * Remove a single mark (spent, or added by mistake).
+         * @param dungeon a valid dungeon name
+         * @throws IllegalArgumentException if no mark of that dungeon is held
+         */
+        public void remove(String dungeon){
+            int d = idOf(dungeon);
+            if (d == -1 || have[d] == 0) throw new IllegalArgumentException("No " + dungeon + " marks held to remove!");
+            int held = have[d]--;
+
+            //the reverse of add
+            int start = firstAtLeast(d, held);
+            int mid = firstAtLeast(d, held + 1);
+            int end = firstAtLeast(d, held + 2);
+            for (int e = start; e < mid; e++){
+                int row = entryRow[e];
+                counts.satisfied[row]--;
+                counts.shortCount[row]++;
+                counts.shortSum[row] += d;
+                classify(row);
+            }
+            for (int e = mid; e < end; e++){
+                int row = entryRow[e];
+                counts.shortCount[row]--;
+                counts.shortSum[row] -= d;
+                classify(row);
+            }
+        }
+
+        /**
+         * @param dungeon a valid dungeon name
+         * @return the marks of that dungeon held
+         */
+        public int getAmount(String dungeon){
+            int d = idOf(dungeon);
+            return d == -1 ? 0 : have[d];
+        }
+
+        /**
+         * @return the quests completable with the marks held, in library order
+         */
+        public MarkQuest[] getCompletable(){
+            return toQuests(completable);
+        }
+
+        /**
+         * @return the quests a single mark away, in library order
+         */
+        public MarkQuest[] getOneRunAway(){
+            return toQuests(oneRunAway);
+        }
+
+        /**
+         * @param q a quest of getOneRunAway
+         * @return the dungeon it needs one more run of, null if the quest is not one run away
+         */
+        public String getMissingDungeon(MarkQuest q){
+            return oneRunAway.get(q.getRow()) ? table.getDungeonName(counts.shortSum[q.getRow()]) : null;
+        }
+
+        private int idOf(String dungeon){
+            ResourceManager.getInstance().assertValidDungeon(dungeon);
+            return table.getDungeonIdOf(dungeon);
+        }
+
+        private void classify(int row){
+            int satisfied = counts.satisfied[row];
+            completable.set(row, satisfied == distinct[row]);
+            oneRunAway.set(row, satisfied == distinct[row] - 1 && counts.shortCount[row] == 1);
+        }
+    }
+}
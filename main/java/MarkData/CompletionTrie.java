@@ -0,0 +1,146 @@
+package MarkData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Search box completions: words of quest names, dungeon names and type names, in the form searches compare against
+ * (lowercase, without [?!'.], see QuestTable.toSearchable).
+ *
+ * A trie over all completions, where every node keeps the TOP_K completions below it with the highest weight.
+ * Completing a prefix is then a single walk down the prefix, whatever the amount of completions.
+ *
+ * Built once per QuestLibrary (see QuestLibrary.getCompletions), immutable afterwards: safe to use from any thread.
+ */
+public class CompletionTrie {
+
+    public static final int TOP_K = 8; //completions kept per node, the most a prefix can be completed to
+
+    /**
+     * A word the search box can be completed to. Immutable.
+     */
+    public static class Completion {
+        private final String text;
+        private final String kind;
+        private final int weight;
+
+        Completion(String text, String kind, int weight){
+            this.text = text;
+            this.kind = kind;
+            this.weight = weight;
+        }
+
+        /**
+         * @return the word, as it should be searched for
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return what the word is: "Quest", "Dungeon" or "Type"
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the sum of the tiers of all quests the word finds, higher weights are completed first
+         */
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    private static class Node {
+        final HashMap<Character, Node> children = new HashMap<>();
+        Completion completion; //the completion ending at this node, null if none
+        Completion[] top; //best completions at or below this node, highest weight first
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * Build the completions of a library.
+     *
+     * @param table the quests of the library
+     * @param tierOfType type id ; tier of that type
+     */
+    CompletionTrie(QuestTable table, int[] tierOfType){
+        HashMap<String, Completion> completions = new HashMap<>(); //text ; completion, a word is completed once
+
+        //types and dungeons first: a quest word that is also a type or dungeon name is shown as the latter
+        int[] typeWeight = new int[table.getTypeCount()];
+        int[] dungeonWeight = new int[table.getDungeonCount()];
+        for (int row = 0; row < table.size(); row++){
+            int tier = tierOfType[table.getTypeId(row)];
+            typeWeight[table.getTypeId(row)] += tier;
+            for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+                dungeonWeight[table.getReqDungeon(i)] += tier;
+            }
+        }
+        for (int t = 0; t < typeWeight.length; t++){
+            add(completions, table.getTypeName(t), "Type", typeWeight[t]);
+        }
+        for (int d = 0; d < dungeonWeight.length; d++){
+            add(completions, table.getDungeonName(d), "Dungeon", dungeonWeight[d]);
+        }
+        for (int row = 0; row < table.size(); row++){
+            int tier = tierOfType[table.getTypeId(row)];
+            for (String word : table.getName(row).split(" ")){
+                add(completions, word, "Quest", tier);
+            }
+        }
+
+        for (Completion c : completions.values()){
+            Node node = root;
+            for (int i = 0; i < c.text.length(); i++){
+                node = node.children.computeIfAbsent(c.text.charAt(i), k -> new Node());
+            }
+            node.completion = c;
+        }
+        collectTop(root);
+    }
+
+    //add a word, or add to its weight if it is there already
+    private static void add(HashMap<String, Completion> completions, String word, String kind, int weight){
+        String text = QuestTable.toSearchable(word);
+        if (text.isEmpty()) return;
+
+        Completion known = completions.get(text);
+        completions.put(text, known == null
+                ? new Completion(text, kind, weight)
+                : new Completion(text, known.kind, known.weight + weight));
+    }
+
+    //fill in the top completions of a node and everything below it, from the tops of its children
+    private static void collectTop(Node node){
+        ArrayList<Completion> candidates = new ArrayList<>();
+        if (node.completion != null) candidates.add(node.completion);
+        for (Map.Entry<Character, Node> child : node.children.entrySet()){
+            collectTop(child.getValue());
+            for (Completion c : child.getValue().top) candidates.add(c);
+        }
+        //highest weight first, equal weights alphabetically
+        candidates.sort((a, b) -> a.weight != b.weight ? Integer.compare(b.weight, a.weight) : a.text.compareTo(b.text));
+        node.top = candidates.subList(0, Math.min(TOP_K, candidates.size())).toArray(new Completion[]{});
+    }
+
+    /**
+     * Get the best completions of a prefix.
+     *
+     * @param prefix the start of a word, compared the way searches are (see QuestTable.toSearchable)
+     * @return up to TOP_K completions starting with the prefix, highest weight first. Empty for an empty prefix.
+     */
+    public Completion[] complete(String prefix){
+        String text = QuestTable.toSearchable(prefix);
+        if (text.isEmpty()) return new Completion[]{};
+
+        Node node = root;
+        for (int i = 0; i < text.length() && node != null; i++){
+            node = node.children.get(text.charAt(i));
+        }
+        return node == null ? new Completion[]{} : node.top.clone();
+    }
+}
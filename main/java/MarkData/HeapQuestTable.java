@@ -0,0 +1,169 @@
+package MarkData;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * QuestTable holding its columns in arrays on the heap, see QuestTable.Builder
+ */
+class HeapQuestTable extends QuestTable {
+
+    final byte[] typeIds;
+    final int[] nameIds;
+    final int[] reqOffsets;
+    final short[] reqDungeons;
+    final byte[] reqAmounts;
+    final int[] postingOffsets; //postings of dungeon d are postings[postingOffsets[d] .. postingOffsets[d + 1])
+    final int[] postings;
+
+    final String[] typeNames;
+    final String[] dungeonNames;
+    final String[] names;
+    final String[] searchableNames; //names without [?!'. ], lowercase, same index as names
+
+    private final HashMap<String, Integer> typeIdOf;
+    private final HashMap<String, Integer> dungeonIdOf;
+
+    HeapQuestTable(byte[] typeIds, int[] nameIds, int[] reqOffsets, short[] reqDungeons, byte[] reqAmounts,
+                   String[] typeNames, String[] dungeonNames, String[] names){
+        this.typeIds = typeIds;
+        this.nameIds = nameIds;
+        this.reqOffsets = reqOffsets;
+        this.reqDungeons = reqDungeons;
+        this.reqAmounts = reqAmounts;
+        this.typeNames = typeNames;
+        this.dungeonNames = dungeonNames;
+        this.names = names;
+
+        searchableNames = new String[names.length];
+        for (int i = 0; i < names.length; i++){
+            searchableNames[i] = toSearchable(names[i]);
+        }
+
+        typeIdOf = new HashMap<>();
+        for (int t = 0; t < typeNames.length; t++){
+            typeIdOf.put(typeNames[t], t);
+        }
+        dungeonIdOf = new HashMap<>();
+        for (int d = 0; d < dungeonNames.length; d++){
+            dungeonIdOf.put(dungeonNames[d], d);
+        }
+
+        //reverse index of dungeon to quests: first pass counts, second pass fills
+        postingOffsets = new int[dungeonNames.length + 1];
+        int[] lastRow = new int[dungeonNames.length];
+        Arrays.fill(lastRow, -1);
+        for (int row = 0; row < typeIds.length; row++){
+            for (int i = reqOffsets[row]; i < reqOffsets[row + 1]; i++){
+                int d = reqDungeons[i];
+                if (lastRow[d] != row){ //same dungeon twice in one quest
+                    lastRow[d] = row;
+                    postingOffsets[d + 1]++;
+                }
+            }
+        }
+        for (int d = 0; d < dungeonNames.length; d++){
+            postingOffsets[d + 1] += postingOffsets[d];
+        }
+
+        postings = new int[postingOffsets[dungeonNames.length]];
+        int[] next = Arrays.copyOf(postingOffsets, dungeonNames.length);
+        Arrays.fill(lastRow, -1);
+        for (int row = 0; row < typeIds.length; row++){
+            for (int i = reqOffsets[row]; i < reqOffsets[row + 1]; i++){
+                int d = reqDungeons[i];
+                if (lastRow[d] != row){
+                    lastRow[d] = row;
+                    postings[next[d]++] = row;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size(){
+        return typeIds.length;
+    }
+
+    @Override
+    public int getTypeId(int row){
+        return typeIds[row];
+    }
+
+    @Override
+    public String getName(int row){
+        return names[nameIds[row]];
+    }
+
+    @Override
+    public String getSearchableName(int row){
+        return searchableNames[nameIds[row]];
+    }
+
+    @Override
+    public int getReqStart(int row){
+        return reqOffsets[row];
+    }
+
+    @Override
+    public int getReqEnd(int row){
+        return reqOffsets[row + 1];
+    }
+
+    @Override
+    public int getReqDungeon(int req){
+        return reqDungeons[req];
+    }
+
+    @Override
+    public int getReqAmount(int req){
+        return reqAmounts[req];
+    }
+
+    @Override
+    public int getPostingStart(int dungeonId){
+        return postingOffsets[dungeonId];
+    }
+
+    @Override
+    public int getPostingEnd(int dungeonId){
+        return postingOffsets[dungeonId + 1];
+    }
+
+    @Override
+    public int getPosting(int posting){
+        return postings[posting];
+    }
+
+    @Override
+    public int getTypeCount(){
+        return typeNames.length;
+    }
+
+    @Override
+    public String getTypeName(int typeId){
+        return typeNames[typeId];
+    }
+
+    @Override
+    public int getDungeonCount(){
+        return dungeonNames.length;
+    }
+
+    @Override
+    public String getDungeonName(int dungeonId){
+        return dungeonNames[dungeonId];
+    }
+
+    @Override
+    public int getTypeIdOf(String type){
+        Integer id = typeIdOf.get(type);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public int getDungeonIdOf(String dungeon){
+        Integer id = dungeonIdOf.get(dungeon);
+        return id == null ? -1 : id;
+    }
+}
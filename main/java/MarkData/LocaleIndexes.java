@@ -0,0 +1,76 @@
+package MarkData;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Helper class of QuestLibrary
+ *
+ * The LocalizedNames of a library, per locale. A locale is only read and indexed when it is first searched,
+ * and dropped again when it has not been searched for IDLE_MILLIS: supporting many locales costs nothing
+ * at startup, and memory only for the locales in use.
+ *
+ * Safe to use from several threads at once: the first search in a locale builds its index,
+ * other searches in that locale wait for it rather than building their own.
+ */
+class LocaleIndexes {
+
+    static final long IDLE_MILLIS = 10 * 60 * 1000; //a locale not searched for this long is dropped
+
+    private final QuestTable table;
+    private final Function<String, Map<String, String>> source; //locale ; English name ; translated name. null if no such locale
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>(); //locale ; its index
+    private volatile long lastSweep = 0;
+
+    /**
+     * The index of one locale.
+     */
+    private static class Entry {
+        final LocalizedNames names; //null if the locale has no name table
+        volatile long lastUsed;
+
+        Entry(LocalizedNames names, long lastUsed){
+            this.names = names;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * @param table the quests to translate
+     * @param source reads the name table of a locale, returning null if there is none
+     */
+    LocaleIndexes(QuestTable table, Function<String, Map<String, String>> source){
+        this.table = table;
+        this.source = source;
+    }
+
+    /**
+     * @param locale a locale, e.g. "de"
+     * @param now the current time in ms
+     * @return the translated names of that locale, null if it has no name table
+     */
+    LocalizedNames get(String locale, long now){
+        sweep(now);
+        Entry entry = entries.computeIfAbsent(locale, l -> {
+            Map<String, String> translations = source.apply(l);
+            return new Entry(translations == null ? null : new LocalizedNames(l, table, translations), now);
+        });
+        entry.lastUsed = now;
+        return entry.names;
+    }
+
+    /**
+     * @return the locales currently indexed (or known to have no name table)
+     */
+    String[] getLoadedLocales(){
+        return entries.keySet().toArray(new String[]{});
+    }
+
+    //drop the locales not used for IDLE_MILLIS, checking at most a few times per IDLE_MILLIS
+    private void sweep(long now){
+        if (now - lastSweep < IDLE_MILLIS / 4) return;
+        lastSweep = now;
+        entries.values().removeIf(e -> now - e.lastUsed >= IDLE_MILLIS);
+    }
+}
@@ -0,0 +1,98 @@
+package MarkData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The quest names of a QuestTable in another language, as searched (see NameNormalizer). Immutable.
+ *
+ * Built from a name table mapping English quest names to their translation (see ResourceManager.loadLocalizedNames).
+ * Quests missing from the table only have their English name.
+ *
+ * Translations are held once per distinct name, rows pointing at them, like the names of a QuestTable.
+ */
+public class LocalizedNames {
+
+    private final String locale;
+    private final int[] nameIds; //row ; index into names/searchableNames, -1 if not translated
+    private final String[] names; //translated name ; as written
+    private final String[] searchableNames; //translated name ; as compared against by name filters
+    private final int translated; //rows having a translation
+
+    /**
+     * @param locale the locale of the translations
+     * @param table the quests to translate
+     * @param translations English quest name ; translated name
+     */
+    LocalizedNames(String locale, QuestTable table, Map<String, String> translations){
+        this.locale = locale;
+
+        HashMap<String, Integer> ids = new HashMap<>(); //English name ; name id, -1 if not translated
+        String[] byId = new String[translations.size()];
+        int distinct = 0;
+        int count = 0;
+        nameIds = new int[table.size()];
+        for (int row = 0; row < nameIds.length; row++){
+            String english = table.getName(row);
+            Integer id = ids.get(english);
+            if (id == null){
+                String translation = translations.get(english);
+                id = translation == null ? -1 : distinct++;
+                if (translation != null) byId[id] = translation;
+                ids.put(english, id);
+            }
+            nameIds[row] = id;
+            if (id >= 0) count++;
+        }
+        translated = count;
+
+        names = new String[distinct];
+        searchableNames = new String[distinct];
+        for (int id = 0; id < distinct; id++){
+            names[id] = byId[id];
+            searchableNames[id] = NameNormalizer.toSearchable(byId[id]);
+        }
+    }
+
+    /**
+     * @return the locale of the translations, e.g. "de"
+     */
+    public String getLocale() {
+        return locale;
+    }
+
+    /**
+     * @param row a row of the QuestTable translated
+     * @return the translated name of the quest, null if it has none
+     */
+    public String getName(int row) {
+        int id = nameIds[row];
+        return id < 0 ? null : names[id];
+    }
+
+    /**
+     * @param row a row of the QuestTable translated
+     * @return the translated name of the quest as compared against by name filters, null if it has none
+     */
+    public String getSearchableName(int row) {
+        int id = nameIds[row];
+        return id < 0 ? null : searchableNames[id];
+    }
+
+    /**
+     * @param row a row of the QuestTable translated
+     * @param word a search word, see NameNormalizer.fold
+     * @return whether the translated name of the quest contains the word. false if it has no translation
+     */
+    public boolean contains(int row, String word) {
+        int id = nameIds[row];
+        return id >= 0 && searchableNames[id].contains(word);
+    }
+
+    /**
+     * @return amount of quests having a translated name
+     */
+    public int getTranslatedCount() {
+        return translated;
+    }
+}
@@ -0,0 +1,364 @@
+package MarkData;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * QuestTable reading its columns straight from a read-only memory-mapped catalog file.
+ *
+ * Nothing per quest is copied onto the heap: columns are read from the mapping on access,
+ * and names are only decoded when asked for. Name filters compare against the mapped bytes of the searchable names
+ * (see searchableNameContains), decoding nothing for ASCII names. Only the (few) type and dungeon names are kept on the heap.
+ * Every process mapping the same file shares the same pages of memory.
+ * A QuestLibrary on a mapped table makes its MarkQuest views on access and builds its indexes on first use (see QuestLibrary).
+ *
+ * The searchable names are stored as NameNormalizer made them: the file records its NameNormalizer.VERSION,
+ * a file of another version is not current (see isCurrent) and is written again from the catalog sources.
+ * Likewise the file records a hash of the sources it was written from, and is not current once they changed.
+ *
+ * File layout (big-endian), sections directly after each other:
+ * header: magic, version, normalizer version, rows, reqs, typeCount, dungeonCount, nameCount, postingCount (ints),
+ * source hash (SOURCE_HASH_SIZE bytes of ASCII, padded with zeroes)
+ * typeIds (byte[rows]), nameIds (int[rows]), reqOffsets (int[rows + 1]),
+ * reqDungeons (short[reqs]), reqAmounts (byte[reqs]),
+ * postingOffsets (int[dungeonCount + 1]), postings (int[postingCount]),
+ * string tables for typeNames, dungeonNames, names and searchableNames:
+ * (int[count + 1] byte offsets into the table's UTF-8 bytes, followed by those bytes)
+ */
+class MappedQuestTable extends QuestTable {
+
+    private static final int MAGIC = 0x4D51544C; //"MQTL"
+    private static final int VERSION = 3; //2: normalizer version in the header, 3: source hash
+    private static final int SOURCE_HASH_SIZE = 64; //a SHA-256 in hex
+    private static final int HEADER_SIZE = 9 * 4 + SOURCE_HASH_SIZE;
+
+    private final MappedByteBuffer buffer;
+    private final int rows;
+    private final int reqs;
+
+    //byte position of each section in the file
+    private final int typeIdsBase;
+    private final int nameIdsBase;
+    private final int reqOffsetsBase;
+    private final int reqDungeonsBase;
+    private final int reqAmountsBase;
+    private final int postingOffsetsBase;
+    private final int postingsBase;
+    private final StringTable names;
+    private final StringTable searchableNames;
+
+    private final String[] typeNames;
+    private final String[] dungeonNames;
+    private final HashMap<String, Integer> typeIdOf;
+    private final HashMap<String, Integer> dungeonIdOf;
+
+    private MappedQuestTable(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a quest catalog file!");
+        }
+        if (buffer.getInt(4) != VERSION){
+            throw new IOException("Unsupported quest catalog version " + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        if (buffer.getInt(8) != NameNormalizer.VERSION){
+            throw new IOException("Quest catalog has searchable names of normalizer version " + buffer.getInt(8)
+                    + ", expected " + NameNormalizer.VERSION);
+        }
+        rows = buffer.getInt(12);
+        reqs = buffer.getInt(16);
+        int typeCount = buffer.getInt(20);
+        int dungeonCount = buffer.getInt(24);
+        int nameCount = buffer.getInt(28);
+        int postingCount = buffer.getInt(32);
+        if (rows < 0 || reqs < 0 || typeCount < 0 || dungeonCount < 0 || nameCount < 0 || postingCount < 0){
+            throw new IOException("Quest catalog file is corrupt!");
+        }
+
+        //counts are checked against the file size before anything is read at an offset computed from them
+        typeIdsBase = HEADER_SIZE;
+        nameIdsBase = section(typeIdsBase, rows);
+        reqOffsetsBase = section(nameIdsBase, 4L * rows);
+        reqDungeonsBase = section(reqOffsetsBase, 4L * (rows + 1L));
+        reqAmountsBase = section(reqDungeonsBase, 2L * reqs);
+        postingOffsetsBase = section(reqAmountsBase, reqs);
+        postingsBase = section(postingOffsetsBase, 4L * (dungeonCount + 1L));
+
+        StringTable types = new StringTable(section(postingsBase, 4L * postingCount), typeCount);
+        StringTable dungeons = new StringTable(types.end(), dungeonCount);
+        names = new StringTable(dungeons.end(), nameCount);
+        searchableNames = new StringTable(names.end(), nameCount);
+        if (searchableNames.end() != buffer.capacity()){
+            throw new IOException("Quest catalog file is truncated or corrupt!");
+        }
+
+        typeNames = new String[typeCount];
+        typeIdOf = new HashMap<>();
+        for (int t = 0; t < typeCount; t++){
+            typeNames[t] = types.get(t);
+            typeIdOf.put(typeNames[t], t);
+        }
+        dungeonNames = new String[dungeonCount];
+        dungeonIdOf = new HashMap<>();
+        for (int d = 0; d < dungeonCount; d++){
+            dungeonNames[d] = dungeons.get(d);
+            dungeonIdOf.put(dungeonNames[d], d);
+        }
+    }
+
+    /**
+     * @param base byte position of a section
+     * @param length its length in bytes
+     * @return the byte position right after it
+     * @throws IOException if the section does not fit in the file
+     */
+    private int section(long base, long length) throws IOException {
+        if (base < 0 || length < 0 || base + length > buffer.capacity()){
+            throw new IOException("Quest catalog file is truncated or corrupt!");
+        }
+        return (int) (base + length);
+    }
+
+    /**
+     * Map a catalog file, see QuestTable.mapCatalog
+     */
+    static MappedQuestTable open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            if (channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Quest catalog file " + file + " is too large to map!");
+            }
+            //the mapping stays valid after the channel is closed
+            return new MappedQuestTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Check the header of a catalog file, see QuestTable.isCatalogCurrent
+     */
+    static boolean isCurrent(File file, String sourceHash) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))){
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != NameNormalizer.VERSION) return false;
+            in.skipBytes(6 * 4); //counts
+            byte[] hash = new byte[SOURCE_HASH_SIZE];
+            in.readFully(hash);
+            return Arrays.equals(hash, encodeSourceHash(sourceHash));
+        } catch (IOException e){ //missing, or shorter than a header
+            return false;
+        }
+    }
+
+    //the source hash as stored in the header
+    private static byte[] encodeSourceHash(String sourceHash){
+        byte[] encoded = sourceHash.getBytes(StandardCharsets.US_ASCII);
+        if (encoded.length > SOURCE_HASH_SIZE){
+            throw new IllegalArgumentException("A source hash has at most " + SOURCE_HASH_SIZE + " characters, not " + encoded.length);
+        }
+        return Arrays.copyOf(encoded, SOURCE_HASH_SIZE);
+    }
+
+    /**
+     * Write a catalog file, see QuestTable.writeCatalog
+     */
+    static void write(HeapQuestTable table, String sourceHash, File file) throws IOException {
+        byte[] hash = encodeSourceHash(sourceHash);
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(NameNormalizer.VERSION);
+                out.writeInt(table.typeIds.length);
+                out.writeInt(table.reqDungeons.length);
+                out.writeInt(table.typeNames.length);
+                out.writeInt(table.dungeonNames.length);
+                out.writeInt(table.names.length);
+                out.writeInt(table.postings.length);
+                out.write(hash);
+
+                out.write(table.typeIds);
+                for (int v : table.nameIds) out.writeInt(v);
+                for (int v : table.reqOffsets) out.writeInt(v);
+                for (short v : table.reqDungeons) out.writeShort(v);
+                out.write(table.reqAmounts);
+                for (int v : table.postingOffsets) out.writeInt(v);
+                for (int v : table.postings) out.writeInt(v);
+
+                writeStrings(out, table.typeNames);
+                writeStrings(out, table.dungeonNames);
+                writeStrings(out, table.names);
+                writeStrings(out, table.searchableNames);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath()); //only still there if writing failed
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        byte[][] encoded = new byte[strings.length][];
+        int offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < strings.length; i++){
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            offset += encoded[i].length;
+            out.writeInt(offset);
+        }
+        for (byte[] b : encoded){
+            out.write(b);
+        }
+    }
+
+    /**
+     * A string table section of the file, strings decoded on request.
+     */
+    private class StringTable {
+        private final int offsetsBase;
+        private final int bytesBase;
+        private final int count;
+
+        StringTable(int base, int count) throws IOException {
+            this.offsetsBase = base;
+            this.bytesBase = section(base, 4L * (count + 1L));
+            this.count = count;
+        }
+
+        /**
+         * Same as get(i).contains(word). Compares against the mapped bytes directly if string i is ASCII,
+         * only decoding it if it is not.
+         */
+        boolean contains(int i, String word){
+            int start = bytesBase + buffer.getInt(offsetsBase + 4 * i);
+            int end = bytesBase + buffer.getInt(offsetsBase + 4 * (i + 1));
+            for (int k = start; k < end; k++){
+                if (buffer.get(k) < 0) return get(i).contains(word); //multi-byte UTF-8
+            }
+
+            int length = word.length();
+            for (int from = start; from <= end - length; from++){
+                int k = 0;
+                while (k < length && buffer.get(from + k) == word.charAt(k)) k++;
+                if (k == length) return true;
+            }
+            return false;
+        }
+
+        String get(int i){
+            int start = buffer.getInt(offsetsBase + 4 * i);
+            byte[] b = new byte[buffer.getInt(offsetsBase + 4 * (i + 1)) - start];
+            for (int k = 0; k < b.length; k++){
+                b[k] = buffer.get(bytesBase + start + k);
+            }
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        //byte position right after this table
+        int end() throws IOException {
+            return section(bytesBase, buffer.getInt(offsetsBase + 4 * count));
+        }
+    }
+
+    @Override
+    public int size(){
+        return rows;
+    }
+
+    @Override
+    public int getTypeId(int row){
+        return buffer.get(typeIdsBase + row);
+    }
+
+    @Override
+    public String getName(int row){
+        return names.get(buffer.getInt(nameIdsBase + 4 * row));
+    }
+
+    @Override
+    public String getSearchableName(int row){
+        return searchableNames.get(buffer.getInt(nameIdsBase + 4 * row));
+    }
+
+    @Override
+    public boolean searchableNameContains(int row, String word){
+        return searchableNames.contains(buffer.getInt(nameIdsBase + 4 * row), word);
+    }
+
+    @Override
+    public int getReqStart(int row){
+        return buffer.getInt(reqOffsetsBase + 4 * row);
+    }
+
+    @Override
+    public int getReqEnd(int row){
+        return buffer.getInt(reqOffsetsBase + 4 * (row + 1));
+    }
+
+    @Override
+    public int getReqDungeon(int req){
+        return buffer.getShort(reqDungeonsBase + 2 * req);
+    }
+
+    @Override
+    public int getReqAmount(int req){
+        return buffer.get(reqAmountsBase + req);
+    }
+
+    @Override
+    public int getPostingStart(int dungeonId){
+        return buffer.getInt(postingOffsetsBase + 4 * dungeonId);
+    }
+
+    @Override
+    public int getPostingEnd(int dungeonId){
+        return buffer.getInt(postingOffsetsBase + 4 * (dungeonId + 1));
+    }
+
+    @Override
+    public int getPosting(int posting){
+        return buffer.getInt(postingsBase + 4 * posting);
+    }
+
+    @Override
+    public int getTypeCount(){
+        return typeNames.length;
+    }
+
+    @Override
+    public String getTypeName(int typeId){
+        return typeNames[typeId];
+    }
+
+    @Override
+    public int getDungeonCount(){
+        return dungeonNames.length;
+    }
+
+    @Override
+    public String getDungeonName(int dungeonId){
+        return dungeonNames[dungeonId];
+    }
+
+    @Override
+    public int getTypeIdOf(String type){
+        Integer id = typeIdOf.get(type);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public int getDungeonIdOf(String dungeon){
+        Integer id = dungeonIdOf.get(dungeon);
+        return id == null ? -1 : id;
+    }
+}
@@ -0,0 +1,83 @@
+package MarkData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Running total of the marks still needed per dungeon, over all tracked quests.
+ *
+ * Kept up to date by the tracker on every change (quest added/removed, mark (un)done),
+ * so each change only costs the requirements it touches, and reading a dungeon's total costs nothing.
+ */
+public class MarkDemand {
+
+    private final HashMap<String, Integer> outstanding; //dungeon ; marks still needed, dungeons needing nothing are left out
+    private ObjIntConsumer<String> listener; //(dungeon, new outstanding amount), called on every change
+
+    public MarkDemand(){
+        outstanding = new HashMap<>();
+    }
+
+    /**
+     * Set the listener notified whenever the outstanding marks of a dungeon change.
+     * @param listener receives the dungeon and its new amount of outstanding marks
+     */
+    public void setListener(ObjIntConsumer<String> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * A quest started being tracked, none of its marks done yet.
+     * @param reqs the requirements of the quest
+     */
+    public void addQuest(MarkRequirement[] reqs){
+        for (MarkRequirement req : reqs){
+            change(req.getMarkType(), req.getAmount());
+        }
+    }
+
+    /**
+     * A quest stopped being tracked.
+     * @param stillNeeded the marks (dungeon ; amount) the quest still needed when it was removed
+     */
+    public void removeQuest(Map<String, Integer> stillNeeded){
+        for (Map.Entry<String, Integer> m : stillNeeded.entrySet()){
+            change(m.getKey(), -m.getValue());
+        }
+    }
+
+    /**
+     * A single mark of a tracked quest was marked as done, or undone.
+     * @param dungeon the dungeon of the mark
+     * @param done true if marked as done, false if undone
+     */
+    public void markToggled(String dungeon, boolean done){
+        change(dungeon, done ? -1 : 1);
+    }
+
+    /**
+     * @param dungeon a dungeon name
+     * @return marks of this dungeon still needed over all tracked quests
+     */
+    public int getOutstanding(String dungeon){
+        Integer amount = outstanding.get(dungeon);
+        return amount == null ? 0 : amount;
+    }
+
+    private void change(String dungeon, int delta){
+        if (delta == 0) return;
+
+        int amount = getOutstanding(dungeon) + delta;
+        if (amount < 0){
+            throw new IllegalStateException("More " + dungeon + " marks done than were ever needed!");
+        }
+        if (amount == 0){
+            outstanding.remove(dungeon);
+        } else {
+            outstanding.put(dungeon, amount);
+        }
+
+        if (listener != null) listener.accept(dungeon, amount);
+    }
+}
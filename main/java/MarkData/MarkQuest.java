@@ -7,36 +7,64 @@ package MarkData;
  * Type: (Scout, Standard, Epic)
  * Name: ("The Pirate King", "To the Mountains!")
  * completionReq : Array of MarkRequirements. When all Requirements are fulfilled, the Quest is complete.
+ *
+ * The data itself is held by a QuestTable, a MarkQuest only points at its row.
  */
 public class MarkQuest {
 
-    private final String questType;
-    private final String name;
-    private final MarkRequirement[] completionReq;
+    private final QuestTable table;
+    private final int row;
 
-    MarkQuest(String type, String name, MarkRequirement[] completionReq){
-        this.questType = type;
-        this.name = name;
-        this.completionReq = completionReq;
+    MarkQuest(QuestTable table, int row){
+        this.table = table;
+        this.row = row;
     }
 
     public String getType() {
-        return questType;
+        return table.getTypeName(table.getTypeId(row));
     }
 
     public String getName() {
-        return name;
+        return table.getName(row);
     }
 
+    /**
+     * Creates the MarkRequirements of this quest from its table row, on every call.
+     * @return the requirements of this quest
+     */
     public MarkRequirement[] getCompletionReq() {
-        return completionReq;
+        int start = table.getReqStart(row);
+        MarkRequirement[] reqs = new MarkRequirement[table.getReqEnd(row) - start];
+        for (int i = 0; i < reqs.length; i++){
+            reqs[i] = new MarkRequirement(table.getDungeonName(table.getReqDungeon(start + i)), table.getReqAmount(start + i));
+        }
+        return reqs;
     }
 
     public int getTotalMarkAmount() {
         int total = 0;
-        for (MarkRequirement req : completionReq){
-            total += req.getAmount();
+        for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+            total += table.getReqAmount(i);
         }
         return total;
     }
+
+    /**
+     * @return the row of this quest in its QuestTable
+     */
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (! (o instanceof MarkQuest)) return false;
+        MarkQuest other = (MarkQuest) o;
+        return table == other.table && row == other.row;
+    }
+
+    @Override
+    public int hashCode() {
+        return row;
+    }
 }
@@ -0,0 +1,59 @@
+package MarkData;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans up names and search text, so that they compare the same regardless of case, accents and punctuation.
+ *
+ * Works on any language: case is folded (upper then lower case, so a German sharp s matches "ss"),
+ * text is decomposed (NFKD) and accents and other combining marks are dropped (an accented e matches "e").
+ * Apostrophes, '!', '?' and '.' are removed, including their forms in other scripts (inverted, full width, ideographic).
+ *
+ * ASCII text, such as all English quest names, is cleaned up without any of the Unicode steps.
+ */
+public class NameNormalizer {
+
+    //increase on every change to how names are cleaned up: stored searchable names (see MappedQuestTable) are then rebuilt
+    public static final int VERSION = 2;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+"); //accents, once decomposed
+    private static final Pattern PUNCTUATION = Pattern.compile("['!?.\u2018\u2019\u00A1\u00BF\u3002\uFF01\uFF0E\uFF1F\u055E\u061F]");
+    private static final Pattern ASCII_PUNCTUATION = Pattern.compile("['!?.]");
+    private static final Pattern SPACES = Pattern.compile("[\\s\\p{Z}]+");
+
+    private NameNormalizer(){
+        //static methods only
+    }
+
+    /**
+     * Clean up search text (or a name) for comparing, keeping the spaces between its words.
+     * @param text any text
+     * @return the text without accents, apostrophes, '!', '?' and '.', case folded
+     */
+    public static String fold(String text){
+        if (isAscii(text)){
+            return ASCII_PUNCTUATION.matcher(text).replaceAll("").toLowerCase(Locale.ROOT);
+        }
+        String folded = text.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        String decomposed = Normalizer.normalize(folded, Normalizer.Form.NFKD);
+        return PUNCTUATION.matcher(MARKS.matcher(decomposed).replaceAll("")).replaceAll("");
+    }
+
+    /**
+     * Clean up a name the way name filters compare against it: like fold, and without any spaces.
+     * @param name a quest name, in any language
+     * @return the searchable name
+     */
+    public static String toSearchable(String name){
+        return SPACES.matcher(fold(name)).replaceAll("");
+    }
+
+    private static boolean isAscii(String text){
+        for (int i = 0; i < text.length(); i++){
+            if (text.charAt(i) > 0x7F) return false;
+        }
+        return true;
+    }
+}
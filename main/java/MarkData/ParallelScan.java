@@ -0,0 +1,126 @@
+package MarkData;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Helper class of QuestLibrary
+ *
+ * Scans all rows of a QuestTable, in parallel on the common fork-join pool once there are enough rows
+ * to be worth it. Below PARALLEL_THRESHOLD rows a plain loop is used, since splitting up the work costs more than it saves.
+ *
+ * Results are always in row order, exactly as a plain loop would give them: chunks are merged left to right.
+ */
+class ParallelScan {
+
+    static final int PARALLEL_THRESHOLD = 16384; //rows from which on scans are split up
+    private static final int CHUNK_SIZE = 4096; //rows scanned by a single task
+
+    private ParallelScan(){
+    }
+
+    /**
+     * @param rows amount of rows to scan
+     * @param keep whether a row is part of the result
+     * @return all rows (ascending) passing keep
+     */
+    static int[] filter(int rows, IntPredicate keep){
+        if (rows < PARALLEL_THRESHOLD){
+            return filterChunk(0, rows, keep);
+        }
+        return ForkJoinPool.commonPool().invoke(new FilterTask(0, rows, keep));
+    }
+
+    /**
+     * @param rows amount of rows to scan
+     * @param function value to compute of each row
+     * @return the value of each row, same index as the row
+     */
+    static int[] map(int rows, IntUnaryOperator function){
+        int[] values = new int[rows];
+        if (rows < PARALLEL_THRESHOLD){
+            mapChunk(0, rows, function, values);
+        } else {
+            ForkJoinPool.commonPool().invoke(new MapTask(0, rows, function, values));
+        }
+        return values;
+    }
+
+    private static int[] filterChunk(int from, int to, IntPredicate keep){
+        int[] kept = new int[to - from];
+        int count = 0;
+        for (int row = from; row < to; row++){
+            if (keep.test(row)) kept[count++] = row;
+        }
+        int[] toReturn = new int[count];
+        System.arraycopy(kept, 0, toReturn, 0, count);
+        return toReturn;
+    }
+
+    private static void mapChunk(int from, int to, IntUnaryOperator function, int[] values){
+        for (int row = from; row < to; row++){
+            values[row] = function.applyAsInt(row);
+        }
+    }
+
+    private static class FilterTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final transient IntPredicate keep;
+
+        FilterTask(int from, int to, IntPredicate keep){
+            this.from = from;
+            this.to = to;
+            this.keep = keep;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= CHUNK_SIZE){
+                return filterChunk(from, to, keep);
+            }
+            int middle = (from + to) >>> 1;
+            FilterTask left = new FilterTask(from, middle, keep);
+            left.fork();
+            int[] right = new FilterTask(middle, to, keep).compute();
+            int[] leftRows = left.join();
+
+            //left chunk first, keeps row order
+            int[] merged = new int[leftRows.length + right.length];
+            System.arraycopy(leftRows, 0, merged, 0, leftRows.length);
+            System.arraycopy(right, 0, merged, leftRows.length, right.length);
+            return merged;
+        }
+    }
+
+    private static class MapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final transient IntUnaryOperator function;
+        private final int[] values; //shared, each task only writes its own range
+
+        MapTask(int from, int to, IntUnaryOperator function, int[] values){
+            this.from = from;
+            this.to = to;
+            this.function = function;
+            this.values = values;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE){
+                mapChunk(from, to, function, values);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MapTask(from, middle, function, values), new MapTask(middle, to, function, values));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package MarkData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pace of the player per dungeon, from the times marks are toggled, to estimate how long quests will take.
+ *
+ * A clear of a dungeon toggles a mark on every tracked quest needing it: toggles of the same dungeon
+ * less than SAME_RUN_MILLIS apart count as a single run.
+ *
+ * Per dungeon, kept in constant memory and updated in O(1) per toggle:
+ * - the times of the last HISTORY runs, in a ring buffer: the pace over those runs
+ * - an exponentially weighted average of the time between runs: the current pace, reacting to the latest runs first
+ *
+ * Not thread-safe: the tracker uses it on the EDT only.
+ */
+public class ProgressStats {
+
+    public static final int HISTORY = 64; //runs kept per dungeon
+    static final long SAME_RUN_MILLIS = 2000; //toggles of a dungeon closer than this are one run
+    static final long UNDO_MILLIS = 60 * 1000; //a mark undone this soon after its run takes the run back
+    private static final double WEIGHT = 0.25; //weight of the latest time between runs in the average
+    private static final double HOUR = 60 * 60 * 1000;
+
+    private final HashMap<String, DungeonPace> paces = new HashMap<>(); //dungeon ; its pace, once run
+
+    /**
+     * The runs of a single dungeon.
+     */
+    private static class DungeonPace {
+        final long[] runs = new long[HISTORY]; //ring buffer of run times
+        int newest = -1; //index of the newest run in runs
+        int count = 0; //runs in the ring buffer
+        double averageGap = 0; //ms between runs, weighted average. 0 until there are two runs
+
+        //state before the newest run, to take it back (see markToggled)
+        double previousAverageGap = 0;
+        boolean canUndo = false;
+
+        long last(){
+            return runs[newest];
+        }
+
+        void add(long time){
+            previousAverageGap = averageGap;
+            canUndo = true;
+            if (count > 0){
+                long gap = Math.max(1, time - last());
+                averageGap = averageGap == 0 ? gap : WEIGHT * gap + (1 - WEIGHT) * averageGap;
+            }
+            newest = (newest + 1) % HISTORY;
+            runs[newest] = time;
+            count = Math.min(HISTORY, count + 1);
+        }
+
+        void undo(){
+            averageGap = previousAverageGap;
+            canUndo = false;
+            newest = (newest - 1 + HISTORY) % HISTORY; //the run it overwrote (if full) is lost: the buffer just holds one less
+            count--;
+        }
+    }
+
+    /**
+     * A mark was toggled.
+     *
+     * Marked done: counts as a run of the dungeon, unless a run of it was counted less than SAME_RUN_MILLIS ago.
+     * Undone: takes back the last run of the dungeon if it was counted less than UNDO_MILLIS ago (a misclick),
+     * only once per run. Otherwise it changes nothing: the run was made, the mark just went elsewhere.
+     *
+     * @param dungeon the dungeon of the mark
+     * @param done whether the mark was marked done, or undone
+     * @param time when, in ms (System.currentTimeMillis)
+     */
+    public void markToggled(String dungeon, boolean done, long time){
+        DungeonPace pace = paces.computeIfAbsent(dungeon, d -> new DungeonPace());
+        if (done){
+            if (pace.count > 0 && time - pace.last() < SAME_RUN_MILLIS) return; //same clear, another quest
+            pace.add(time);
+        } else if (pace.canUndo && pace.count > 0 && time - pace.last() < UNDO_MILLIS){
+            pace.undo();
+        }
+    }
+
+    /**
+     * Current pace of a dungeon: the weighted average time between runs,
+     * or the time since the last run if that is longer already (the player slowed down or stopped).
+     *
+     * @param dungeon a dungeon name
+     * @param now the current time in ms
+     * @return runs per hour, 0 if the dungeon was run less than twice
+     */
+    public double getRunsPerHour(String dungeon, long now){
+        DungeonPace pace = paces.get(dungeon);
+        if (pace == null || pace.averageGap == 0) return 0;
+        double gap = Math.max(pace.averageGap, now - pace.last());
+        return HOUR / gap;
+    }
+
+    /**
+     * Pace of a dungeon over its last HISTORY runs.
+     *
+     * @param dungeon a dungeon name
+     * @return runs per hour, 0 if the dungeon was run less than twice
+     */
+    public double getRecentRunsPerHour(String dungeon){
+        DungeonPace pace = paces.get(dungeon);
+        if (pace == null || pace.count < 2) return 0;
+        long oldest = pace.runs[(pace.newest - pace.count + 1 + HISTORY) % HISTORY];
+        return (pace.count - 1) * HOUR / Math.max(1, pace.last() - oldest);
+    }
+
+    /**
+     * Estimate how long it takes to get marks at the current pace (see getRunsPerHour), running one dungeon after the other.
+     *
+     * @param outstanding dungeon ; marks still needed
+     * @param now the current time in ms
+     * @return the estimate in ms, Double.POSITIVE_INFINITY if a dungeon needed has no pace yet. 0 if nothing is needed.
+     */
+    public double estimateMillis(Map<String, Integer> outstanding, long now){
+        double total = 0;
+        for (Map.Entry<String, Integer> m : outstanding.entrySet()){
+            if (m.getValue() <= 0) continue;
+            double runsPerHour = getRunsPerHour(m.getKey(), now);
+            if (runsPerHour == 0) return Double.POSITIVE_INFINITY;
+            total += m.getValue() * HOUR / runsPerHour;
+        }
+        return total;
+    }
+}
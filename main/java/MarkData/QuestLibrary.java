@@ -3,9 +3,11 @@ package MarkData;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import ResourceLoader.*;
-import javafx.util.Pair;
 
 /**
  * "Library" Holding all Available quests from the Tinkerer
@@ -13,20 +15,127 @@ import javafx.util.Pair;
  * Data taken from https://www.realmeye.com/wiki/the-tinkerer
  *
  * The QuestLibrary also provides functions for searching for a specific quest.
+ *
+ * A QuestLibrary is an immutable snapshot: nothing in it changes after construction,
+ * so any amount of threads can search it at the same time without locking.
+ * Its indexes (tier order, rows per type, similarity, completions, completability) are built on first use,
+ * once, each behind a lock of its own. A library on a MappedQuestTable makes MarkQuest views on access as well:
+ * until an index is used, it keeps nothing per quest on the heap.
+ * The current library is published through a single atomic reference (see getInstance and publish),
+ * replacing the library swaps that reference; searches already running keep using the snapshot they started with.
  */
 public class QuestLibrary {
 
-    private final MarkQuest[] allQuests; //array of all quests available
+    private final QuestTable questTable; //all quest data, column-wise
+    private final Lazy<MarkQuest[]> allQuests; //array of all quests available, a view on each row of questTable
+    private final Lazy<int[]> rowsByTier; //rows sorted by tier (descending), sorted once since the library never changes
+    private final Lazy<MarkQuest[]> questsByTier; //the quests of rowsByTier
+    private final int[] tierOfType; //type id ; tier of that type
+    private final Lazy<int[][]> rowsOfType; //type id ; rows (ascending) of every quest of that type
+    private final Lazy<QuestSimilarity> similarity; //quests sharing dungeons, with its own cache: replaced along with the library
+    private final Lazy<CompletionTrie> completions; //search box completions of the words in this library
+    private final Lazy<Completability> completability; //quests completable with a mark inventory
+    private final LocaleIndexes localeIndexes; //quest names in other languages, read when first searched
     private final ResourceManager resourceManager;
-    private static QuestLibrary singleton = new QuestLibrary();
+    private static final AtomicReference<QuestLibrary> current = new AtomicReference<>(new QuestLibrary(ResourceManager.getInstance().loadAllQuests()));
 
-    private QuestLibrary(){
+    private QuestLibrary(QuestTable questTable){
         resourceManager = ResourceManager.getInstance();
-        allQuests = resourceManager.loadAllQuests();
+        this.questTable = questTable;
+
+        tierOfType = new int[questTable.getTypeCount()];
+        for (int t = 0; t < tierOfType.length; t++){
+            tierOfType[t] = resourceManager.getTypeTier(questTable.getTypeName(t));
+        }
+
+        allQuests = new Lazy<>(() -> {
+            MarkQuest[] quests = new MarkQuest[questTable.size()];
+            for (int row = 0; row < quests.length; row++){
+                quests[row] = new MarkQuest(questTable, row);
+            }
+            return quests;
+        });
+        if (! (questTable instanceof MappedQuestTable)){
+            allQuests.get(); //the table is on the heap already, a view per row adds little
+        }
+
+        rowsByTier = new Lazy<>(this::sortRowsByTier);
+        questsByTier = new Lazy<>(() -> Arrays.stream(rowsByTier.get()).mapToObj(this::getQuest).toArray(MarkQuest[]::new));
+        rowsOfType = new Lazy<>(this::groupRowsByType);
+        similarity = new Lazy<>(() -> new QuestSimilarity(questTable));
+        completions = new Lazy<>(() -> new CompletionTrie(questTable, tierOfType));
+        completability = new Lazy<>(() -> new Completability(questTable, this::getQuest));
+        localeIndexes = new LocaleIndexes(questTable, resourceManager::loadLocalizedNames);
     }
 
+    //rows of equal tier stay in library order
+    private int[] sortRowsByTier(){
+        long[] keys = new long[questTable.size()]; //minus tier ; row, ascending is highest tier first
+        for (int row = 0; row < keys.length; row++){
+            keys[row] = ((long) -tierOfType[questTable.getTypeId(row)] << 32) | row;
+        }
+        Arrays.sort(keys);
+        int[] rows = new int[keys.length];
+        for (int i = 0; i < keys.length; i++){
+            rows[i] = (int) keys[i];
+        }
+        return rows;
+    }
+
+    private int[][] groupRowsByType(){
+        int[] typeCounts = new int[questTable.getTypeCount()];
+        for (int row = 0; row < questTable.size(); row++){
+            typeCounts[questTable.getTypeId(row)]++;
+        }
+        int[][] rows = new int[typeCounts.length][];
+        for (int t = 0; t < typeCounts.length; t++){
+            rows[t] = new int[typeCounts[t]];
+            typeCounts[t] = 0;
+        }
+        for (int row = 0; row < questTable.size(); row++){
+            int t = questTable.getTypeId(row);
+            rows[t][typeCounts[t]++] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Get the current library. Never blocks.
+     *
+     * Callers doing several lookups that must agree with each other should call this once and keep the result,
+     * rather than calling it again for each lookup.
+     *
+     * @return the current snapshot of the library
+     */
     public static QuestLibrary getInstance(){
-        return singleton;
+        return current.get();
+    }
+
+    /**
+     * Replace the current library by one holding the quests of a table.
+     *
+     * The new library is fully constructed before it is published, so getInstance returns either the old or the new library,
+     * never a partially built one. Its indexes are built on first use, see the class description.
+     *
+     * @param questTable the quests of the new library, types and dungeons already validated (see ResourceManager)
+     * @return the new library
+     */
+    public static QuestLibrary publish(QuestTable questTable){
+        QuestLibrary library = new QuestLibrary(questTable);
+        current.set(library);
+        return library;
+    }
+
+    /**
+     * Read the catalog sources again (see CatalogMerger) and publish a new library if the merged catalog changed.
+     * Only useful if ResourceManager.canReloadCatalog.
+     *
+     * @return what changed
+     */
+    public static CatalogMerger.Report reloadCatalog(){
+        CatalogMerger.Report report = ResourceManager.getInstance().reloadCatalog();
+        if (report.hasChanges()) publish(report.getTable());
+        return report;
     }
 
     /**
@@ -43,37 +152,49 @@ public class QuestLibrary {
      * @return all quests (not) in the filter.
      */
     public MarkQuest[] filterQuestOfName(String[] nameFilter, boolean includeFilter){
-        ArrayList<MarkQuest> tempQuestList = new ArrayList<>();
-        ArrayList<Pair<MarkQuest, Integer>> filterMatches = new ArrayList<>();
-
-        for (MarkQuest q : allQuests) {
-            String questName = q.getName()
-                    .replaceAll("['!?. ]","") //remove '?', '!', '.' ' ' and apostrophe from quest name.
-                    .toLowerCase();
+        return filterQuestOfName(nameFilter, includeFilter, null);
+    }
 
-            int hits = 0;
+    /**
+     * Same as filterQuestOfName, a word hitting if it is in either the English or the localized name of a quest.
+     *
+     * @param nameFilter array of all words in this filter, see NameNormalizer.fold
+     * @param includeFilter to return all quests within the filter, or not within filter.
+     * @param localized the names of a locale (see getLocalizedNames), null for English only
+     * @return all quests (not) in the filter.
+     */
+    public MarkQuest[] filterQuestOfName(String[] nameFilter, boolean includeFilter, LocalizedNames localized){
+        //hits of each quest, counted in parallel on large libraries (see ParallelScan)
+        int[] hits = ParallelScan.map(questTable.size(), row -> {
+            int rowHits = 0;
             for (String searchWord : nameFilter){ //for each search word,
-                if (questName.contains(searchWord)) hits++; //see if the name has it, and add to total
-            }
-            if (includeFilter){
-                if (hits > 0) filterMatches.add(new Pair<>(q, hits)); //for sorting, later
-            } else { //exclude filter
-                if (hits == 0) tempQuestList.add(q);
+                if (questTable.searchableNameContains(row, searchWord) || (localized != null && localized.contains(row, searchWord))){
+                    rowHits++; //see if the name has it, and add to total
+                }
             }
-        }
+            return rowHits;
+        });
 
-        if (includeFilter) { //want to sort pairs by hits
-            Comparator<Pair<MarkQuest, Integer>> byHits =
-                    Comparator.comparing(Pair::getValue); //first time I get to use '::' in the wild, OwO
-            filterMatches.sort(byHits);
+        if (! includeFilter){ //exclude filter, library order
+            return toQuests(ParallelScan.filter(hits.length, row -> hits[row] == 0));
+        }
 
-            for (int i = filterMatches.size() - 1; i >= 0; i--){ //descending order
-                Pair<MarkQuest, Integer> p = filterMatches.get(i);
-                tempQuestList.add(p.getKey());
-            }
+        //sort by hits, descending. Counting sort: hits never exceed the amount of search words
+        int[] countOfHits = new int[nameFilter.length + 2];
+        for (int h : hits){
+            countOfHits[h]++;
+        }
+        //start position of each amount of hits in the result, most hits first
+        int[] next = new int[nameFilter.length + 2];
+        for (int h = nameFilter.length - 1; h >= 1; h--){
+            next[h] = next[h + 1] + countOfHits[h + 1];
         }
 
-        return tempQuestList.toArray(new MarkQuest[]{});
+        MarkQuest[] toReturn = new MarkQuest[hits.length - countOfHits[0]];
+        for (int row = hits.length - 1; row >= 0; row--){ //equal hits: last quest in the library first
+            if (hits[row] > 0) toReturn[next[hits[row]]++] = getQuest(row);
+        }
+        return toReturn;
     }
 
     /**
@@ -88,26 +209,40 @@ public class QuestLibrary {
            resourceManager.assertValidType(a);
         }
 
-        ArrayList<MarkQuest> tempQuestList = new ArrayList<>();
-        for (MarkQuest q : allQuests){
-            String type = q.getType();
-
-            boolean inFilter = false;
+        boolean[] inFilter = typeMask(typeFilter);
 
-            for (String str : typeFilter){
-                if (type.equals(str)){
-                    inFilter = true;
-                }
-            }
+        //add only if on filter in inclusion mode, only if not on filter in exclusion mode
+        return toQuests(ParallelScan.filter(questTable.size(), row -> inFilter[questTable.getTypeId(row)] == includeFilter));
+    }
 
-            if (includeFilter) {
-                if (inFilter) tempQuestList.add(q); //add only if on filter, inclusion mode
-            } else {
-                if (! inFilter) tempQuestList.add(q); //add only if not on filter, exclusion mode
-            }
+    /**
+     * Turns a type filter into a lookup by type id, see QuestTable.
+     *
+     * @param typeFilter array of all types in this filter
+     * @return array, indexed by type id, true if that type is in the filter
+     */
+    public boolean[] typeMask(String[] typeFilter){
+        boolean[] mask = new boolean[questTable.getTypeCount()];
+        for (String t : typeFilter){
+            int id = questTable.getTypeIdOf(t);
+            if (id != -1) mask[id] = true; //-1: valid type no quest has
         }
+        return mask;
+    }
 
-        return tempQuestList.toArray(new MarkQuest[]{});
+    /**
+     * Turns a dungeon filter into a lookup by dungeon id, see QuestTable.
+     *
+     * @param dungeonFilter array of all dungeons in this filter
+     * @return array, indexed by dungeon id, true if that dungeon is in the filter
+     */
+    public boolean[] dungeonMask(String[] dungeonFilter){
+        boolean[] mask = new boolean[questTable.getDungeonCount()];
+        for (String d : dungeonFilter){
+            int id = questTable.getDungeonIdOf(d);
+            if (id != -1) mask[id] = true; //-1: valid dungeon no quest requires
+        }
+        return mask;
     }
 
     /**
@@ -124,109 +259,256 @@ public class QuestLibrary {
             resourceManager.assertValidDungeon(a);
         }
 
-        ArrayList<MarkQuest> tempQuestList = new ArrayList<>();
-        for (MarkQuest q : allQuests) {
-            //get all dungeons a quest is a member of
-            MarkRequirement[] questDungeons = q.getCompletionReq();
-            String[] dungeons = new String[questDungeons.length];
-
-            for (int i = 0; i < questDungeons.length; i++){
-                dungeons[i] = questDungeons[i].getMarkType();
+        //mark every quest in any of the dungeons, using the reverse index instead of checking each quest
+        boolean[] filterHit = new boolean[questTable.size()];
+        for (String d : dungeonFilter){
+            int id = questTable.getDungeonIdOf(d);
+            if (id == -1) continue; //valid dungeon no quest requires
+            for (int i = questTable.getPostingStart(id); i < questTable.getPostingEnd(id); i++){
+                filterHit[questTable.getPosting(i)] = true;
             }
+        }
 
-            boolean filterHit = false;
-            //check if any of those dungeons is within the filter
-            for (String dungeon : dungeons) {
-                for (String str : dungeonFilter) {
-                    if (dungeon.equals(str)) {
-                        filterHit = true;
-                        break;
-                    }
-                } 
-            }
-            //we now know how many times this MQ is in the filter
-            if (includeFilter){
-                if (filterHit) {
-                    tempQuestList.add(q);
-                }
-            } else { //excludeFilter
-                if (! filterHit) tempQuestList.add(q); //add if no member of this quest in dungeonFilter
-            }
+        //add if in filter in inclusion mode, or if not in filter in exclusion mode
+        return toQuests(ParallelScan.filter(filterHit.length, row -> filterHit[row] == includeFilter));
+    }
+
+    /**
+     * @param rows rows of the QuestTable
+     * @return the MarkQuest of each row, same order
+     */
+    private MarkQuest[] toQuests(int[] rows){
+        MarkQuest[] toReturn = new MarkQuest[rows.length];
+        for (int i = 0; i < rows.length; i++){
+            toReturn[i] = getQuest(rows[i]);
+        }
+        return toReturn;
+    }
+
+    /**
+     * Get all quests requiring marks of a dungeon, using the reverse index built on initialisation.
+     *
+     * Costs only the amount of quests returned, rather than searching the library.
+     *
+     * @param dungeon a valid dungeon name
+     * @return all quests requiring this dungeon, in library order
+     */
+    public MarkQuest[] getQuestsOfDungeon(String dungeon){
+        resourceManager.assertValidDungeon(dungeon);
+
+        int id = questTable.getDungeonIdOf(dungeon);
+        if (id == -1) return new MarkQuest[]{}; //valid dungeon no quest requires
+
+        int start = questTable.getPostingStart(id);
+        MarkQuest[] toReturn = new MarkQuest[questTable.getPostingEnd(id) - start];
+        for (int i = 0; i < toReturn.length; i++){
+            toReturn[i] = getQuest(questTable.getPosting(start + i));
         }
+        return toReturn;
+    }
 
-        return tempQuestList.toArray(new MarkQuest[]{});
+    /**
+     * Get the quests requiring the most similar marks to a quest, for planning runs that count for several quests.
+     * See QuestSimilarity.
+     *
+     * @param q a MarkQuest from this library
+     * @param n the maximum amount of quests to return, at most QuestSimilarity.MAX_RESULTS
+     * @return quests sharing dungeons with q, most similar first, q itself excluded
+     */
+    public MarkQuest[] getSimilarQuests(MarkQuest q, int n){
+        if (! contains(q)) throw new IllegalArgumentException("Quest " + q.getName() + " is not from this library!");
+        return toQuests(similarity.get().getSimilarRows(q.getRow(), n));
     }
 
     /**
      * Sorts a given Array of MarkQuests by tier, ascending or descending
      *
-     * Using insertionSort for a sorting algorithm.
+     * Descending keeps quests of equal tier in their given order, ascending is exactly the reverse of descending.
      *
      * @param quests lists of quests to sort by tier
      * @param ascending sort ascending Y/N
      * @return sorted MarkQuest[] by tier
      */
     public MarkQuest[] sortQuestByTier(MarkQuest[] quests, boolean ascending){
-        MarkQuest[] toReturn = new MarkQuest[quests.length];
-        ArrayList<MarkQuest> questsList = new ArrayList<>(Arrays.asList(quests));
+        MarkQuest[] toReturn = quests.clone();
+        //stable sort, highest tier first
+        Arrays.sort(toReturn, Comparator.comparingInt((MarkQuest q) -> tierOfType[questTable.getTypeId(q.getRow())]).reversed());
 
-        for (int i = 0; i < toReturn.length; i++){
-            int highestTier = Integer.MIN_VALUE;
-            MarkQuest nextUP = null;
-            for (MarkQuest q : questsList){
-
-                String type = q.getType();
-                int tier = resourceManager.getTypeTier(type);
-                if (tier > highestTier){
-                    highestTier = tier;
-                    nextUP = q;
-                }
+        if (ascending){
+            for (int i = 0; i < toReturn.length / 2; i++){
+                MarkQuest temp = toReturn[i];
+                toReturn[i] = toReturn[toReturn.length - 1 - i];
+                toReturn[toReturn.length - 1 - i] = temp;
             }
-            assert nextUP != null;
-            questsList.remove(nextUP);
-            toReturn[i] = nextUP;
-        }
-        //array is now sorted in descending order
-        //because im lazy and fuck performance for an array of ~30, if ascending just return the reversed array.
-        if (! ascending){
-            return toReturn;
-        } else {
-            MarkQuest[] reversed = new MarkQuest[toReturn.length];
-            for (int i = toReturn.length - 1; i >= 0; i--){
-                reversed[toReturn.length - 1 - i] = toReturn[i];
-                reversed[toReturn.length - 1 - i] = toReturn[i];
-            }
-            return reversed;
         }
+        return toReturn;
     }
 
     /**
      * @return array holding all MarkQuests in the library
      */
     public MarkQuest[] getAllQuests() {
-        return allQuests;
+        return allQuests.get();
+    }
+
+    /**
+     * Same as sortQuestByTier(getAllQuests(), false), but sorted only once, on first use.
+     *
+     * Do not modify the returned array, it is shared.
+     *
+     * @return array holding all MarkQuests in the library, highest tier first
+     */
+    public MarkQuest[] getQuestsByTier() {
+        return questsByTier.get();
+    }
+
+    /**
+     * The rows of getQuestsByTier, for scanning in tier order without a MarkQuest per quest.
+     *
+     * Do not modify the returned array, it is shared.
+     *
+     * @return all rows of the QuestTable, highest tier first
+     */
+    public int[] getRowsByTier() {
+        return rowsByTier.get();
     }
 
     /**
-     * Used to keep MarkQuest Class package-private
+     * Get the name of a quest the way name filters compare against it:
+     * without [?!'. ] and in lowercase.
      *
-     * @param type the type of the MarkQuest ("Scout", "Epic", etc.)
-     * @param name the name of the MQ ("Scout the Abyss", "King Who?")
-     * @param req the requirements of completing the MQ, as MarkRequirement[]
-     * @return a new MarkQuest Object.
+     * @param q a MarkQuest from this library
+     * @return the cleaned up name of the quest
      */
-    public static MarkQuest createMarkQuest(String type, String name, MarkRequirement[] req){
-        return new MarkQuest(type, name, req);
+    public String getSearchableName(MarkQuest q) {
+        return questTable.getSearchableName(q.getRow());
     }
 
     /**
-     * Used to keep the MarkRequirement Class package-private
+     * Find quests of another snapshot (e.g. the library this one replaced) in this library.
+     *
+     * Quests are the same if they have the same searchable name, which is what identifies a quest
+     * across catalog reloads (see CatalogMerger). Their content may differ. Scans every quest once.
      *
-     * @param dungeon the name of the dungeonn this mark is from
-     * @param amount the amount of times this mark must be collected.
-     * @return a new MarkRequirement Object.
+     * @param quests quests of any library
+     * @return per quest, the quest of this library with the same searchable name. null where this library has none
+     */
+    public MarkQuest[] findSameQuests(MarkQuest[] quests) {
+        MarkQuest[] found = new MarkQuest[quests.length];
+        HashMap<String, ArrayList<Integer>> wanted = new HashMap<>(); //searchable name ; indexes into quests
+        for (int i = 0; i < quests.length; i++){
+            int row = quests[i].getRow();
+            if (contains(quests[i])){
+                found[i] = getQuest(row); //of this library already
+            } else {
+                wanted.computeIfAbsent(NameNormalizer.toSearchable(quests[i].getName()), n -> new ArrayList<>()).add(i);
+            }
+        }
+
+        for (int row = 0; row < questTable.size() && ! wanted.isEmpty(); row++){
+            ArrayList<Integer> same = wanted.remove(questTable.getSearchableName(row));
+            if (same == null) continue;
+            MarkQuest quest = getQuest(row);
+            for (int i : same) found[i] = quest;
+        }
+        return found;
+    }
+
+    /**
+     * Get the quest names of a locale, reading and indexing them if the locale was not searched recently.
+     * See LocaleIndexes.
+     *
+     * @param locale a locale, e.g. "de". null for none
+     * @return the localized names of the quests in this library, null if locale is null or has no name table
+     * @throws IllegalArgumentException if the locale is not a valid locale name
+     */
+    public LocalizedNames getLocalizedNames(String locale) {
+        if (locale == null) return null;
+        return localeIndexes.get(locale, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the column-wise data of all quests, for scanning many quests quickly
      */
-    public static MarkRequirement createMarkRequirement(String dungeon, int amount){
-        return new MarkRequirement(dungeon, amount);
+    public QuestTable getQuestTable() {
+        return questTable;
+    }
+
+    /**
+     * @return completions of quest name words, dungeons and types, for the search box
+     */
+    public CompletionTrie getCompletions() {
+        return completions.get();
+    }
+
+    /**
+     * @return the index answering which quests a mark inventory can complete
+     */
+    public Completability getCompletability() {
+        return completability.get();
+    }
+
+    /**
+     * @param typeId a type id of the QuestTable
+     * @return the tier of that type, see ResourceManager.getTypeTier
+     */
+    public int getTierOfType(int typeId) {
+        return tierOfType[typeId];
+    }
+
+    /**
+     * Do not modify the returned array, it is shared.
+     *
+     * @param typeId a type id of the QuestTable
+     * @return rows (ascending) of all quests of that type
+     */
+    public int[] getRowsOfType(int typeId) {
+        return rowsOfType.get()[typeId];
+    }
+
+    /**
+     * @param row a row of the QuestTable
+     * @return the MarkQuest of that row, equal to (though not always the same object as) any other of that row
+     */
+    public MarkQuest getQuest(int row) {
+        MarkQuest[] quests = allQuests.getIfBuilt();
+        return quests != null ? quests[row] : new MarkQuest(questTable, row);
+    }
+
+    /**
+     * @param q a MarkQuest of any library
+     * @return whether q is a quest of this library (and not of a library it replaced or was replaced by)
+     */
+    public boolean contains(MarkQuest q) {
+        return q.getRow() < questTable.size() && getQuest(q.getRow()).equals(q);
+    }
+
+    /**
+     * A value built on first use, once: by the first thread asking for it, other threads asking meanwhile wait for it.
+     */
+    private static final class Lazy<T> {
+        private Supplier<T> build; //null once built, only used holding the lock
+        private volatile T value = null;
+
+        Lazy(Supplier<T> build){
+            this.build = build;
+        }
+
+        T get(){
+            T built = value;
+            if (built != null) return built;
+            synchronized (this){
+                if (value == null){
+                    value = build.get();
+                    build = null;
+                }
+                return value;
+            }
+        }
+
+        //the value if built already, null if not
+        T getIfBuilt(){
+            return value;
+        }
     }
 }
@@ -0,0 +1,215 @@
+package MarkData;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the quests most similar to a quest, by the dungeons they require marks of.
+ *
+ * Each quest is a sparse vector of dungeon ; amount of marks. Similarity is the cosine of two such vectors:
+ * 1 for quests needing the same dungeons in the same proportions, 0 for quests sharing no dungeon.
+ *
+ * Built once per QuestLibrary: the vector of each quest, an inverted index of dungeon ; (row, amount) postings
+ * and the length of each vector.
+ * A query only visits the postings of the dungeons of the quest asked about, never the whole library,
+ * and its result is cached per quest. A new library (catalog reload) comes with a new, empty cache.
+ *
+ * Thread-safe.
+ */
+public class QuestSimilarity {
+
+    public static final int MAX_RESULTS = 50; //most similar quests kept per quest, larger requests are cut to this
+
+    private final int rows;
+    private final int[] vectorStart; //row ; index of its first entry, vectorStart[rows] is the end
+    private final int[] vectorDungeon; //entry ; dungeon id, a dungeon appears once per row
+    private final int[] vectorAmount; //entry ; marks of that dungeon the row requires
+    private final int[] postingStart; //dungeon id ; index of its first posting, postingStart[dungeonCount] is the end
+    private final int[] postingRow; //posting ; row of a quest requiring the dungeon
+    private final int[] postingAmount; //posting ; marks of the dungeon that quest requires
+    private final double[] inverseNorm; //row ; 1 / length of the quest's vector
+
+    private final ConcurrentHashMap<Integer, int[]> cache = new ConcurrentHashMap<>(); //row ; rows of the most similar quests, best first
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Working memory of a query, reused by every query on the same thread.
+     */
+    private static class Scratch {
+        final int[] dot; //row ; dot product with the quest asked about, 0 if not touched
+        final int[] touched; //rows with a dot product, first 'count' are valid
+        int count;
+
+        Scratch(int rows){
+            dot = new int[rows];
+            touched = new int[rows];
+        }
+    }
+
+    /**
+     * Build the index of a table. Costs a pass over all requirements.
+     * @param table the quests to index
+     */
+    QuestSimilarity(QuestTable table){
+        rows = table.size();
+        int dungeons = table.getDungeonCount();
+
+        //a quest listing a dungeon twice needs the sum of both: merge those first, counting postings per dungeon
+        int[] amountOf = new int[dungeons]; //dungeon id ; amount of the row being merged
+        int[] dungeonsOfRow = new int[dungeons];
+        int[] postingCount = new int[dungeons + 1];
+        vectorStart = new int[rows + 1];
+        int reqCount = rows == 0 ? 0 : table.getReqEnd(rows - 1); //requirements are stored row after row
+        int[] dungeonOfEntry = new int[reqCount]; //at most one entry per requirement
+        int[] amountOfEntry = new int[reqCount];
+        inverseNorm = new double[rows];
+        for (int row = 0; row < rows; row++){
+            int distinct = mergeRow(table, row, amountOf, dungeonsOfRow);
+            double sum = 0;
+            int entry = vectorStart[row];
+            for (int i = 0; i < distinct; i++){
+                int d = dungeonsOfRow[i];
+                sum += (double) amountOf[d] * amountOf[d];
+                postingCount[d]++;
+                dungeonOfEntry[entry] = d;
+                amountOfEntry[entry++] = amountOf[d];
+                amountOf[d] = 0;
+            }
+            vectorStart[row + 1] = entry;
+            inverseNorm[row] = sum == 0 ? 0 : 1 / Math.sqrt(sum);
+        }
+        vectorDungeon = Arrays.copyOf(dungeonOfEntry, vectorStart[rows]);
+        vectorAmount = Arrays.copyOf(amountOfEntry, vectorStart[rows]);
+
+        postingStart = new int[dungeons + 1];
+        for (int d = 0; d < dungeons; d++){
+            postingStart[d + 1] = postingStart[d] + postingCount[d];
+        }
+        postingRow = new int[postingStart[dungeons]];
+        postingAmount = new int[postingStart[dungeons]];
+
+        int[] next = Arrays.copyOf(postingStart, dungeons);
+        for (int row = 0; row < rows; row++){ //rows ascending within each dungeon
+            for (int entry = vectorStart[row]; entry < vectorStart[row + 1]; entry++){
+                int d = vectorDungeon[entry];
+                postingRow[next[d]] = row;
+                postingAmount[next[d]++] = vectorAmount[entry];
+            }
+        }
+
+        scratch = ThreadLocal.withInitial(() -> new Scratch(rows));
+    }
+
+    /**
+     * Add up the amounts of each dungeon of a row. Callers reset amountOf afterwards.
+     * @return the amount of distinct dungeons, listed at the start of dungeonsOfRow
+     */
+    private static int mergeRow(QuestTable table, int row, int[] amountOf, int[] dungeonsOfRow){
+        int distinct = 0;
+        for (int i = table.getReqStart(row); i < table.getReqEnd(row); i++){
+            int d = table.getReqDungeon(i);
+            if (amountOf[d] == 0) dungeonsOfRow[distinct++] = d;
+            amountOf[d] += table.getReqAmount(i);
+        }
+        return distinct;
+    }
+
+    /**
+     * Get the quests most similar to a quest, itself excluded. Quests sharing no dungeon with it are never similar.
+     *
+     * @param row the row of the quest
+     * @param n the maximum amount of quests to return, at most MAX_RESULTS
+     * @return rows of the most similar quests, most similar first, equally similar by row
+     */
+    public int[] getSimilarRows(int row, int n){
+        if (row < 0 || row >= rows) throw new IllegalArgumentException("Row " + row + " is not a quest of this library!");
+
+        int[] best = cache.computeIfAbsent(row, this::query);
+        return Arrays.copyOf(best, Math.min(Math.max(n, 0), best.length));
+    }
+
+    /**
+     * Score every quest sharing a dungeon with the row through the postings of its dungeons, keep the best MAX_RESULTS.
+     */
+    private int[] query(int row){
+        Scratch s = scratch.get();
+        s.count = 0;
+
+        //sparse dot product: only the postings of the quest's own dungeons
+        for (int entry = vectorStart[row]; entry < vectorStart[row + 1]; entry++){
+            int d = vectorDungeon[entry];
+            int amount = vectorAmount[entry];
+            for (int p = postingStart[d]; p < postingStart[d + 1]; p++){
+                int other = postingRow[p];
+                if (other == row) continue;
+                if (s.dot[other] == 0) s.touched[s.count++] = other;
+                s.dot[other] += amount * postingAmount[p];
+            }
+        }
+
+        //the best MAX_RESULTS in a bounded min-heap, the root being the worst kept so far
+        int[] heapRow = new int[Math.min(MAX_RESULTS, s.count)];
+        double[] heapSimilarity = new double[heapRow.length];
+        int size = 0;
+        for (int i = 0; i < s.count; i++){
+            int other = s.touched[i];
+            double similarity = s.dot[other] * inverseNorm[other]; //the quest's own norm is the same for all, leave it out
+            s.dot[other] = 0; //clean for the next query
+
+            if (size < heapRow.length){
+                heapRow[size] = other;
+                heapSimilarity[size] = similarity;
+                siftUp(heapRow, heapSimilarity, size++);
+            } else if (heapRow.length > 0 && better(similarity, other, heapSimilarity[0], heapRow[0])){
+                heapRow[0] = other;
+                heapSimilarity[0] = similarity;
+                siftDown(heapRow, heapSimilarity, size);
+            }
+        }
+
+        int[] best = new int[size];
+        for (int i = size - 1; i >= 0; i--){ //polls worst first, fill from the back
+            best[i] = heapRow[0];
+            heapRow[0] = heapRow[i];
+            heapSimilarity[0] = heapSimilarity[i];
+            siftDown(heapRow, heapSimilarity, i);
+        }
+        return best;
+    }
+
+    //more similar first, equally similar: lower row first
+    private static boolean better(double similarity, int row, double otherSimilarity, int otherRow){
+        return similarity != otherSimilarity ? similarity > otherSimilarity : row < otherRow;
+    }
+
+    private static void siftUp(int[] rows, double[] similarity, int i){
+        while (i > 0){
+            int parent = (i - 1) / 2;
+            if (! better(similarity[parent], rows[parent], similarity[i], rows[i])) return;
+            swap(rows, similarity, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] rows, double[] similarity, int size){
+        int i = 0;
+        while (true){
+            int worst = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++){
+                if (better(similarity[worst], rows[worst], similarity[child], rows[child])) worst = child;
+            }
+            if (worst == i) return;
+            swap(rows, similarity, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(int[] rows, double[] similarity, int a, int b){
+        int r = rows[a];
+        rows[a] = rows[b];
+        rows[b] = r;
+        double sim = similarity[a];
+        similarity[a] = similarity[b];
+        similarity[b] = sim;
+    }
+}
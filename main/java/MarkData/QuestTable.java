@@ -0,0 +1,249 @@
+package MarkData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Column-wise storage of all quest data.
+ *
+ * Rather than an object per quest (and per requirement), every field is stored in a primitive column
+ * indexed by quest row, so that scanning all quests reads memory sequentially:
+ *
+ * typeIds: (byte) type of each quest, see getTypeName
+ * nameIds: (int) name of each quest, index into a names dictionary (each distinct name stored once)
+ * reqOffsets: (int) requirements of quest 'row' are reqDungeons/reqAmounts[getReqStart(row) .. getReqEnd(row))
+ * reqDungeons: (short) dungeon of each requirement, see getDungeonName
+ * reqAmounts: (byte) amount of each requirement
+ * postings: (int) per dungeon, the rows of all quests requiring it (ascending, once per quest)
+ *
+ * Columns are either held on the heap (built by QuestTable.Builder),
+ * or read straight from a memory-mapped catalog file (see mapCatalog), shared between processes.
+ *
+ * MarkQuest objects are only views on a row of this table, for use in GUI code.
+ */
+public abstract class QuestTable {
+
+    /**
+     * Clean up a quest name the way name filters compare against it, see NameNormalizer.
+     * @param name a quest name
+     * @return the name without [?!'. ] and accents, case folded
+     */
+    static String toSearchable(String name){
+        return NameNormalizer.toSearchable(name);
+    }
+
+    /**
+     * Write a table to a catalog file, which can then be opened by any process using mapCatalog.
+     *
+     * The file is written next to its destination first, then moved in place,
+     * so processes opening it never see a half-written catalog.
+     *
+     * @param table the table to write, built by QuestTable.Builder
+     * @param sourceHash hash of the sources the table was built from, see isCatalogCurrent. At most 64 ASCII characters
+     * @param file the catalog file to create or replace
+     * @throws IOException if the file could not be written
+     */
+    public static void writeCatalog(QuestTable table, String sourceHash, File file) throws IOException {
+        if (! (table instanceof HeapQuestTable)){
+            throw new IllegalArgumentException("Only tables built by QuestTable.Builder can be written to a catalog file!");
+        }
+        MappedQuestTable.write((HeapQuestTable) table, sourceHash, file);
+    }
+
+    /**
+     * Open a catalog file written by writeCatalog, read-only and memory-mapped.
+     *
+     * Quest data is read from the mapping when accessed rather than copied onto the heap,
+     * so every process opening the same file shares one copy in memory.
+     *
+     * @param file the catalog file
+     * @return the table held by the file
+     * @throws IOException if the file could not be read, or is not a catalog file
+     */
+    public static QuestTable mapCatalog(File file) throws IOException {
+        return MappedQuestTable.open(file);
+    }
+
+    /**
+     * @param file a catalog file
+     * @param sourceHash hash of the sources as they are now
+     * @return whether the file was written by writeCatalog of this version, with searchable names of the current
+     * NameNormalizer, from sources with this hash. false if it cannot be read, or needs to be written again
+     */
+    public static boolean isCatalogCurrent(File file, String sourceHash) {
+        return MappedQuestTable.isCurrent(file, sourceHash);
+    }
+
+    /**
+     * @return amount of quests (rows) in the table
+     */
+    public abstract int size();
+
+    public abstract int getTypeId(int row);
+
+    public abstract String getName(int row);
+
+    /**
+     * @return the name of the quest in this row as compared against by name filters, see toSearchable
+     */
+    public abstract String getSearchableName(int row);
+
+    /**
+     * Same as getSearchableName(row).contains(word), for name filters scanning every row.
+     * @param row a row
+     * @param word a search word, see NameNormalizer.fold
+     * @return whether the searchable name of the quest in this row contains the word
+     */
+    public boolean searchableNameContains(int row, String word){
+        return getSearchableName(row).contains(word);
+    }
+
+    /**
+     * @return index of the first requirement of this row, in getReqDungeon / getReqAmount
+     */
+    public abstract int getReqStart(int row);
+
+    /**
+     * @return index after the last requirement of this row, in getReqDungeon / getReqAmount
+     */
+    public abstract int getReqEnd(int row);
+
+    public abstract int getReqDungeon(int req);
+
+    public abstract int getReqAmount(int req);
+
+    /**
+     * @return index of the first row requiring this dungeon, in getPosting
+     */
+    public abstract int getPostingStart(int dungeonId);
+
+    /**
+     * @return index after the last row requiring this dungeon, in getPosting
+     */
+    public abstract int getPostingEnd(int dungeonId);
+
+    /**
+     * @return a row, see getPostingStart / getPostingEnd
+     */
+    public abstract int getPosting(int posting);
+
+    /**
+     * @return amount of distinct types, type ids range from 0 (inclusive) to this (exclusive)
+     */
+    public abstract int getTypeCount();
+
+    public abstract String getTypeName(int typeId);
+
+    /**
+     * @return amount of distinct dungeons, dungeon ids range from 0 (inclusive) to this (exclusive)
+     */
+    public abstract int getDungeonCount();
+
+    public abstract String getDungeonName(int dungeonId);
+
+    /**
+     * @param type a quest type
+     * @return the type id of this type, -1 if no quest in the table has this type
+     */
+    public abstract int getTypeIdOf(String type);
+
+    /**
+     * @param dungeon a dungeon name
+     * @return the dungeon id of this dungeon, -1 if no quest in the table requires it
+     */
+    public abstract int getDungeonIdOf(String dungeon);
+
+    /**
+     * Collects quests one by one, then turns them into a QuestTable.
+     *
+     * Does not validate types or dungeons, that is up to the caller (see ResourceManager).
+     */
+    public static class Builder {
+        //columns, grown as needed (doubling), trimmed on build
+        private int rows = 0;
+        private int reqs = 0;
+        private byte[] typeIds = new byte[64];
+        private int[] nameIds = new int[64];
+        private int[] reqOffsets = new int[65];
+        private short[] reqDungeons = new short[256];
+        private byte[] reqAmounts = new byte[256];
+
+        private final ArrayList<String> typeNames = new ArrayList<>();
+        private final ArrayList<String> dungeonNames = new ArrayList<>();
+        private final ArrayList<String> names = new ArrayList<>();
+        private final HashMap<String, Integer> typeIdOf = new HashMap<>();
+        private final HashMap<String, Integer> dungeonIdOf = new HashMap<>();
+        private final HashMap<String, Integer> nameIdOf = new HashMap<>();
+
+        /**
+         * Add a quest as the next row.
+         *
+         * @param type the type of the quest ("Scout", "Epic")
+         * @param name the name of the quest
+         * @param dungeons the dungeon of each requirement
+         * @param amounts the amount of each requirement, same index as dungeons
+         * @return this builder
+         */
+        public Builder addQuest(String type, String name, String[] dungeons, int[] amounts){
+            if (dungeons.length != amounts.length){
+                throw new IllegalArgumentException("Quest " + name + " has " + dungeons.length + " dungeons but " + amounts.length + " amounts!");
+            }
+            for (int amount : amounts){
+                if (amount < 0 || amount > Byte.MAX_VALUE){
+                    throw new IllegalArgumentException("Quest " + name + " requires an unsupported amount of marks: " + amount);
+                }
+            }
+            if (rows == typeIds.length){
+                typeIds = Arrays.copyOf(typeIds, rows * 2);
+                nameIds = Arrays.copyOf(nameIds, rows * 2);
+                reqOffsets = Arrays.copyOf(reqOffsets, rows * 2 + 1);
+            }
+            if (reqs + dungeons.length > reqDungeons.length){
+                int newLength = Math.max(reqDungeons.length * 2, reqs + dungeons.length);
+                reqDungeons = Arrays.copyOf(reqDungeons, newLength);
+                reqAmounts = Arrays.copyOf(reqAmounts, newLength);
+            }
+
+            typeIds[rows] = (byte) idOf(type, typeIdOf, typeNames, Byte.MAX_VALUE);
+            nameIds[rows] = idOf(name, nameIdOf, names, Integer.MAX_VALUE);
+
+            for (int i = 0; i < dungeons.length; i++){
+                reqDungeons[reqs] = (short) idOf(dungeons[i], dungeonIdOf, dungeonNames, Short.MAX_VALUE);
+                reqAmounts[reqs] = (byte) amounts[i];
+                reqs++;
+            }
+            rows++;
+            reqOffsets[rows] = reqs;
+            return this;
+        }
+
+        public QuestTable build(){
+            return new HeapQuestTable(
+                    Arrays.copyOf(typeIds, rows),
+                    Arrays.copyOf(nameIds, rows),
+                    Arrays.copyOf(reqOffsets, rows + 1),
+                    Arrays.copyOf(reqDungeons, reqs),
+                    Arrays.copyOf(reqAmounts, reqs),
+                    typeNames.toArray(new String[]{}),
+                    dungeonNames.toArray(new String[]{}),
+                    names.toArray(new String[]{}));
+        }
+
+        //dictionary lookup, adding the value if new
+        private static int idOf(String value, HashMap<String, Integer> ids, ArrayList<String> values, int maxId){
+            Integer id = ids.get(value);
+            if (id == null){
+                if (values.size() > maxId){
+                    throw new IllegalArgumentException("Too many distinct values to store " + value + "!");
+                }
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package MarkData;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Data-type for the result of a RoutePlanner
+ *
+ * A RoutePlan has:
+ *
+ * completed: the quests that are complete after doing all runs.
+ * runs: (dungeon ; amount of runs) of all dungeons that have to be run, most runs first.
+ * optimal: whether the planner proved no better plan exists, false if it ran out of time first.
+ */
+public class RoutePlan {
+
+    private final MarkQuest[] completed;
+    private final Map<String, Integer> runs;
+    private final int totalRuns;
+    private final boolean optimal;
+
+    RoutePlan(MarkQuest[] completed, LinkedHashMap<String, Integer> runs, boolean optimal){
+        this.completed = completed;
+        this.runs = Collections.unmodifiableMap(runs);
+        this.optimal = optimal;
+
+        int total = 0;
+        for (int r : runs.values()){
+            total += r;
+        }
+        this.totalRuns = total;
+    }
+
+    public MarkQuest[] getCompleted() {
+        return completed.clone();
+    }
+
+    public Map<String, Integer> getRuns() {
+        return runs;
+    }
+
+    public int getTotalRuns() {
+        return totalRuns;
+    }
+
+    public boolean isOptimal() {
+        return optimal;
+    }
+}
@@ -0,0 +1,348 @@
+package MarkData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Answers "which dungeons should I run next, so that the most quests complete with the fewest runs".
+ *
+ * A single run of a dungeon gives a mark towards every tracked quest that still needs that dungeon,
+ * so the amount of runs a set of quests costs is, per dungeon, the highest amount any quest in the set still needs.
+ *
+ * Given a maximum amount of runs, the planner picks the set of quests completing the most quests (then the fewest runs):
+ * - up to MAX_DP_QUESTS quests: dynamic programming over every subset of quests, each subset built from a smaller one.
+ * - more quests: greedy first guess, then a parallel branch-and-bound search (fork-join) improving on it.
+ *
+ * Every better plan found is passed to a listener as soon as it is found,
+ * and the search stops when the time budget runs out, returning the best plan so far.
+ */
+public class RoutePlanner {
+
+    private static final int MAX_DP_QUESTS = 16; //2^16 subsets of (up to) 26 dungeons, ~2MB
+    private static final int SPLIT_DEPTH = 8; //branch-and-bound levels that are forked as separate tasks
+    private static final int DEADLINE_CHECK_INTERVAL = 1024; //subsets/nodes between checks of the time budget
+
+    private final MarkQuest[] quests;
+    private final String[] dungeons; //only the dungeons any of the quests still needs
+    private final int[][] need; //[quest][dungeon] marks the quest still needs of the dungeon
+
+    //search state, shared between fork-join tasks
+    private int runBudget;
+    private long deadline;
+    private Consumer<RoutePlan> listener;
+    private volatile boolean outOfTime;
+    private final Object bestLock = new Object(); //guards the best plan so far, plan() itself holds 'this'
+    private int bestCount;
+    private int bestRuns;
+    private int[] bestRunVector;
+    private boolean[] bestSet;
+
+    /**
+     * @param outstanding per tracked quest, the marks (dungeon ; amount) it still needs.
+     *                    Quests needing nothing are always part of a plan.
+     */
+    public RoutePlanner(Map<MarkQuest, Map<String, Integer>> outstanding){
+        this(outstanding.keySet().toArray(new MarkQuest[]{}), new ArrayList<>(outstanding.values()));
+    }
+
+    /**
+     * @param quests the tracked quests, the same quest may be tracked more than once
+     * @param outstanding per tracked quest (in the same order), the marks (dungeon ; amount) it still needs.
+     *                    Quests needing nothing are always part of a plan.
+     */
+    public RoutePlanner(MarkQuest[] quests, List<Map<String, Integer>> outstanding){
+        if (quests.length != outstanding.size()){
+            throw new IllegalArgumentException("Got " + quests.length + " quests, but outstanding marks of " + outstanding.size());
+        }
+        this.quests = quests.clone();
+
+        LinkedHashMap<String, Integer> dungeonIndex = new LinkedHashMap<>();
+        for (Map<String, Integer> marks : outstanding){
+            for (Map.Entry<String, Integer> m : marks.entrySet()){
+                if (m.getValue() > 0 && ! dungeonIndex.containsKey(m.getKey())){
+                    dungeonIndex.put(m.getKey(), dungeonIndex.size());
+                }
+            }
+        }
+        dungeons = dungeonIndex.keySet().toArray(new String[]{});
+
+        need = new int[quests.length][dungeons.length];
+        for (int q = 0; q < quests.length; q++){
+            for (Map.Entry<String, Integer> m : outstanding.get(q).entrySet()){
+                if (m.getValue() > 0){
+                    need[q][dungeonIndex.get(m.getKey())] = m.getValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the plan completing the most quests within a given amount of runs.
+     *
+     * @param runBudget maximum amount of dungeon runs the plan may use
+     * @param timeBudgetMillis time after which the best plan so far is returned
+     * @param listener receives every improved plan as soon as it is found (called from worker threads), may be null
+     * @return the best plan found, RoutePlan.isOptimal() tells whether the search completed in time
+     */
+    public synchronized RoutePlan plan(int runBudget, long timeBudgetMillis, Consumer<RoutePlan> listener){
+        if (runBudget < 0){
+            throw new IllegalArgumentException("Cannot plan with a negative amount of runs: " + runBudget);
+        }
+        this.runBudget = runBudget;
+        this.deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        this.listener = listener;
+        this.outOfTime = false;
+        this.bestCount = -1;
+        this.bestRuns = Integer.MAX_VALUE;
+
+        if (quests.length <= MAX_DP_QUESTS){
+            planSubsets();
+        } else {
+            planBranchAndBound();
+        }
+
+        return toPlan(bestSet, bestRunVector, !outOfTime);
+    }
+
+    /**
+     * Dynamic programming over all subsets: the runs needed per dungeon of a subset are those of the subset
+     * without its lowest quest, raised to what that quest needs. Stored per subset, so each is computed once.
+     */
+    private void planSubsets(){
+        int n = quests.length;
+        int m = dungeons.length;
+        int subsets = 1 << n;
+        byte[] runVectors = new byte[subsets * m]; //runs are the amount of a single requirement, a byte like in QuestTable
+
+        offer(new boolean[n], new int[m], 0, 0);
+
+        for (int s = 1; s < subsets; s++){
+            if (s % DEADLINE_CHECK_INTERVAL == 0 && pastDeadline()) return;
+
+            int low = Integer.numberOfTrailingZeros(s);
+            int prev = s & (s - 1);
+            int total = 0;
+            for (int d = 0; d < m; d++){
+                int r = Math.max(runVectors[prev * m + d], need[low][d]);
+                runVectors[s * m + d] = (byte) r;
+                total += r;
+            }
+
+            if (total <= runBudget && isBetter(Integer.bitCount(s), total)){
+                boolean[] set = new boolean[n];
+                int[] runVector = new int[m];
+                for (int q = 0; q < n; q++){
+                    set[q] = (s & (1 << q)) != 0;
+                }
+                for (int d = 0; d < m; d++){
+                    runVector[d] = runVectors[s * m + d];
+                }
+                offer(set, runVector, Integer.bitCount(s), total);
+            }
+        }
+    }
+
+    /**
+     * Greedy first guess (cheapest quests first), then an exhaustive search that skips any branch
+     * that cannot beat the best plan so far. The top SPLIT_DEPTH levels of the search run in parallel.
+     */
+    private void planBranchAndBound(){
+        Integer[] order = new Integer[quests.length];
+        for (int q = 0; q < order.length; q++){
+            order[q] = q;
+        }
+        Arrays.sort(order, Comparator.comparingInt(q -> marginalRuns(q, new int[dungeons.length])));
+        int[] sorted = new int[order.length];
+        for (int i = 0; i < order.length; i++){
+            sorted[i] = order[i];
+        }
+
+        //greedy: take the cheapest quest given what is already being run, until out of runs
+        boolean[] set = new boolean[quests.length];
+        int[] runVector = new int[dungeons.length];
+        int used = 0;
+        int count = 0;
+        for (int q : sorted){
+            int extra = marginalRuns(q, runVector);
+            if (used + extra <= runBudget){
+                set[q] = true;
+                raise(runVector, q);
+                used += extra;
+                count++;
+            }
+        }
+        offer(set, runVector, count, used);
+
+        ForkJoinPool.commonPool().invoke(new BranchTask(sorted, 0, new boolean[quests.length], new int[dungeons.length], 0, 0));
+    }
+
+    /**
+     * One node of the branch-and-bound search: decide on quest order[index], then on the rest.
+     */
+    private class BranchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] order;
+        private final int index;
+        private final boolean[] set;
+        private final int[] runVector;
+        private final int used;
+        private final int count;
+
+        BranchTask(int[] order, int index, boolean[] set, int[] runVector, int used, int count){
+            this.order = order;
+            this.index = index;
+            this.set = set;
+            this.runVector = runVector;
+            this.used = used;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (index >= SPLIT_DEPTH){
+                search(order, index, set, runVector, used, count, new int[]{0});
+                return;
+            }
+            if (outOfTime || pastDeadline()) return;
+            if (index == order.length){
+                if (isBetter(count, used)) offer(set, runVector, count, used);
+                return;
+            }
+            if (bound(order, index, runVector, used, count) < currentBestCount()) return;
+
+            int q = order[index];
+            int extra = marginalRuns(q, runVector);
+            ArrayList<BranchTask> children = new ArrayList<>();
+            if (used + extra <= runBudget){
+                boolean[] withSet = set.clone();
+                int[] withRuns = runVector.clone();
+                withSet[q] = true;
+                raise(withRuns, q);
+                children.add(new BranchTask(order, index + 1, withSet, withRuns, used + extra, count + 1));
+            }
+            if (extra > 0){ //skipping a quest that costs nothing extra can never be better
+                children.add(new BranchTask(order, index + 1, set, runVector, used, count));
+            }
+            invokeAll(children);
+        }
+    }
+
+    /**
+     * Sequential part of the branch-and-bound search, modifies set and runVector in place (restoring them on return).
+     *
+     * @param nodes node counter, for checking the time budget every so often
+     */
+    private void search(int[] order, int index, boolean[] set, int[] runVector, int used, int count, int[] nodes){
+        if (outOfTime) return;
+        if (++nodes[0] % DEADLINE_CHECK_INTERVAL == 0 && pastDeadline()) return;
+
+        if (index == order.length){
+            if (isBetter(count, used)) offer(set.clone(), runVector.clone(), count, used);
+            return;
+        }
+        if (bound(order, index, runVector, used, count) < currentBestCount()) return;
+
+        int q = order[index];
+        int extra = marginalRuns(q, runVector);
+        if (used + extra <= runBudget){
+            int[] saved = runVector.clone();
+            set[q] = true;
+            raise(runVector, q);
+            search(order, index + 1, set, runVector, used + extra, count + 1, nodes);
+            set[q] = false;
+            System.arraycopy(saved, 0, runVector, 0, saved.length);
+        }
+        if (extra > 0){
+            search(order, index + 1, set, runVector, used, count, nodes);
+        }
+    }
+
+    /**
+     * Upper bound on the quests a branch can complete: every remaining quest that would fit on its own.
+     */
+    private int bound(int[] order, int index, int[] runVector, int used, int count){
+        int bound = count;
+        for (int i = index; i < order.length; i++){
+            if (used + marginalRuns(order[i], runVector) <= runBudget) bound++;
+        }
+        return bound;
+    }
+
+    /**
+     * @return the extra runs needed to also complete quest q, on top of runVector
+     */
+    private int marginalRuns(int q, int[] runVector){
+        int extra = 0;
+        for (int d = 0; d < dungeons.length; d++){
+            if (need[q][d] > runVector[d]) extra += need[q][d] - runVector[d];
+        }
+        return extra;
+    }
+
+    private void raise(int[] runVector, int q){
+        for (int d = 0; d < dungeons.length; d++){
+            runVector[d] = Math.max(runVector[d], need[q][d]);
+        }
+    }
+
+    private boolean pastDeadline(){
+        if (System.nanoTime() > deadline) outOfTime = true;
+        return outOfTime;
+    }
+
+    private int currentBestCount(){
+        synchronized (bestLock){
+            return bestCount;
+        }
+    }
+
+    private boolean isBetter(int count, int runs){
+        synchronized (bestLock){
+            return count > bestCount || (count == bestCount && runs < bestRuns);
+        }
+    }
+
+    /**
+     * Keep a plan if it beats the best so far, and let the listener know.
+     */
+    private void offer(boolean[] set, int[] runVector, int count, int runs){
+        RoutePlan plan;
+        synchronized (bestLock){
+            if (! (count > bestCount || (count == bestCount && runs < bestRuns))) return;
+            bestCount = count;
+            bestRuns = runs;
+            bestSet = set;
+            bestRunVector = runVector;
+            plan = toPlan(set, runVector, false);
+        }
+        if (listener != null) listener.accept(plan);
+    }
+
+    private RoutePlan toPlan(boolean[] set, int[] runVector, boolean optimal){
+        ArrayList<MarkQuest> completed = new ArrayList<>();
+        for (int q = 0; q < quests.length; q++){
+            if (set[q]) completed.add(quests[q]);
+        }
+
+        //most runs first
+        Integer[] byRuns = new Integer[dungeons.length];
+        for (int d = 0; d < byRuns.length; d++){
+            byRuns[d] = d;
+        }
+        Arrays.sort(byRuns, (a, b) -> runVector[b] - runVector[a]);
+
+        LinkedHashMap<String, Integer> runs = new LinkedHashMap<>();
+        for (int d : byRuns){
+            if (runVector[d] > 0) runs.put(dungeons[d], runVector[d]);
+        }
+        return new RoutePlan(completed.toArray(new MarkQuest[]{}), runs, optimal);
+    }
+}
@@ -0,0 +1,401 @@
+package ResourceLoader;
+
+import MarkData.NameNormalizer;
+import MarkData.QuestTable;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Merges the quests of several catalog sources into one QuestTable: the bundled MarkQuests.json first,
+ * then every file (or directory of .json files) listed in the SOURCES_PROPERTY system property, in that order,
+ * e.g. -Dmarktracker.sources=community.json:events/ (separated by the path separator of the system).
+ * Every source has the format of MarkQuests.json.
+ *
+ * Quests are identified by their name (as searched, see NameNormalizer.toSearchable), every quest record is hashed
+ * on its content (type, name, requirements). Duplicates collapse deterministically:
+ * - the same record in several sources is kept once
+ * - a quest defined differently by several sources keeps the position of its first definition
+ *   and the content of its last: later sources override earlier ones
+ * - records with an unknown type or dungeon are left out
+ * Each of these counts as a skipped record.
+ *
+ * Loading again only reads sources whose file changed (size or modification time), and only parses
+ * those whose content hash changed. A source that cannot be read or parsed keeps the records of its last good parse,
+ * a source whose file is gone has none. The table is only rebuilt if a quest was added, changed or removed,
+ * so QuestLibrary (and all its indexes) is only replaced when the merged catalog actually changed.
+ *
+ * Safe to use from several threads: loads run one at a time.
+ */
+public class CatalogMerger {
+
+    //system property listing extra catalog sources, see above. Optional.
+    public static final String SOURCES_PROPERTY = "marktracker.sources";
+    static final String BUNDLED = "MarkQuests.json"; //resource, always the first source
+
+    private final ResourceManager resourceManager;
+    private final ArrayList<Source> sources = new ArrayList<>(); //in order, later sources override earlier ones
+    private LinkedHashMap<String, Record> merged = new LinkedHashMap<>(); //quest name, as searched ; record. from the last load
+    private QuestTable table = null; //built on the last load that changed anything
+
+    /**
+     * A single quest, as read from a source. Immutable.
+     */
+    private static class Record {
+        final String type;
+        final String name;
+        final String[] dungeons;
+        final int[] amounts;
+        final String hash; //of all of the above
+
+        Record(String type, String name, String[] dungeons, int[] amounts, String hash){
+            this.type = type;
+            this.name = name;
+            this.dungeons = dungeons;
+            this.amounts = amounts;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A catalog file (or the bundled resource), with the records read from it on the last load.
+     */
+    private static class Source {
+        final String name;
+        final File file; //null for the bundled resource
+        long lastModified = -1;
+        long length = -1;
+        String hash = null; //of the whole content, null if never read (or the file is gone)
+        Record[] records = new Record[]{};
+        int invalid = 0; //records left out for an unknown type or dungeon
+
+        Source(String name, File file){
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    /**
+     * The outcome of a load.
+     */
+    public static class Report {
+        private final int added, changed, removed, skipped;
+        private final int parsedSources, totalSources;
+        private final QuestTable table;
+        private final boolean rebuilt;
+
+        private Report(int added, int changed, int removed, int skipped, int parsedSources, int totalSources, QuestTable table, boolean rebuilt){
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+            this.skipped = skipped;
+            this.parsedSources = parsedSources;
+            this.totalSources = totalSources;
+            this.table = table;
+            this.rebuilt = rebuilt;
+        }
+
+        /**
+         * @return quests in the catalog now that were not in it before this load
+         */
+        public int getAdded() {
+            return added;
+        }
+
+        /**
+         * @return quests in the catalog before and after this load, with a different content
+         */
+        public int getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return quests in the catalog before this load that are not anymore
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return records of all sources not in the catalog: duplicates, overridden by a later source, or invalid
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return sources that were parsed (or found gone) on this load, the others were unchanged
+         */
+        public int getParsedSources() {
+            return parsedSources;
+        }
+
+        /**
+         * @return whether the catalog differs from the one of the previous load. Always true on the first load
+         */
+        public boolean hasChanges() {
+            return rebuilt;
+        }
+
+        /**
+         * @return the merged catalog. The same table as on the previous load if nothing changed
+         */
+        public QuestTable getTable() {
+            return table;
+        }
+
+        @Override
+        public String toString() {
+            return "Catalog: " + added + " added, " + changed + " changed, " + removed + " removed, " + skipped + " skipped ("
+                    + parsedSources + " of " + totalSources + " source(s) parsed)";
+        }
+    }
+
+    /**
+     * @param resourceManager checks the types and dungeons of records
+     */
+    CatalogMerger(ResourceManager resourceManager){
+        this.resourceManager = resourceManager;
+        sources.add(new Source(BUNDLED, null));
+
+        String extra = System.getProperty(SOURCES_PROPERTY);
+        if (extra == null) return;
+        for (String path : extra.split(File.pathSeparator)){
+            if (path.trim().isEmpty()) continue;
+            File f = new File(path.trim());
+            File[] files = f.isDirectory() ? f.listFiles((dir, name) -> name.endsWith(".json")) : new File[]{f};
+            if (files == null) continue;
+            Arrays.sort(files); //directory listings have no order of their own
+            for (File file : files){
+                sources.add(new Source(file.getPath(), file));
+            }
+        }
+    }
+
+    /**
+     * @return whether there are sources besides the bundled MarkQuests.json, which may change while running
+     */
+    public boolean hasExternalSources() {
+        return sources.size() > 1;
+    }
+
+    /**
+     * Hash the content of every source, without parsing any: a catalog file written from the sources
+     * records this hash, and is only current as long as it matches (see ResourceManager.loadMappedCatalog).
+     *
+     * A source file that does not exist hashes as empty, like load treats it.
+     *
+     * @return SHA-256 over the content hashes of all sources in order, in hex
+     * @throws IOException if a source exists but could not be read
+     */
+    synchronized String hashSources() throws IOException {
+        StringBuilder hashes = new StringBuilder();
+        for (Source source : sources){
+            byte[] content;
+            if (source.file == null){
+                content = readAll(getClass().getResourceAsStream("/ResourceLoader/" + BUNDLED));
+            } else {
+                content = source.file.isFile() ? readAll(new FileInputStream(source.file)) : new byte[]{};
+            }
+            hashes.append(hash(content)).append('\n');
+        }
+        return hash(hashes.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read the sources that changed since the last load, and merge all sources.
+     *
+     * Directories listed as a source are only listed once (on creation), files added to them later are not seen.
+     * A source file that is gone counts as empty, one that cannot be read or parsed keeps the quests it had.
+     *
+     * @return what changed, and the merged catalog
+     */
+    public synchronized Report load() {
+        int parsed = 0;
+        for (Source source : sources){
+            if (refresh(source)) parsed++;
+        }
+
+        //merge, in source order
+        LinkedHashMap<String, Record> next = new LinkedHashMap<>();
+        int skipped = 0;
+        for (Source source : sources){
+            skipped += source.invalid;
+            for (Record r : source.records){
+                String id = NameNormalizer.toSearchable(r.name);
+                Record earlier = next.get(id);
+                if (earlier != null) skipped++; //duplicate, or overridden by this one
+                if (earlier == null || ! earlier.hash.equals(r.hash)) next.put(id, r); //an overridden quest keeps its position
+            }
+        }
+
+        //compare to the last load
+        int added = 0;
+        int changed = 0;
+        for (Map.Entry<String, Record> e : next.entrySet()){
+            Record before = merged.get(e.getKey());
+            if (before == null){
+                added++;
+            } else if (! before.hash.equals(e.getValue().hash)){
+                changed++;
+            }
+        }
+        int removed = 0;
+        for (String id : merged.keySet()){
+            if (! next.containsKey(id)) removed++;
+        }
+
+        boolean rebuild = table == null || added + changed + removed > 0;
+        if (rebuild){
+            QuestTable.Builder builder = new QuestTable.Builder();
+            for (Record r : next.values()){
+                builder.addQuest(r.type, r.name, r.dungeons, r.amounts);
+            }
+            table = builder.build();
+        }
+        merged = next;
+        return new Report(added, changed, removed, skipped, parsed, sources.size(), table, rebuild);
+    }
+
+    /**
+     * Read a source again if it changed.
+     * @return whether it was parsed
+     */
+    private boolean refresh(Source source){
+        byte[] content;
+        try {
+            if (source.file == null){ //bundled, never changes while running
+                if (source.hash != null) return false;
+                content = readAll(getClass().getResourceAsStream("/ResourceLoader/" + BUNDLED));
+            } else {
+                if (! source.file.isFile()){
+                    return clear(source);
+                }
+                long lastModified = source.file.lastModified(); //before reading: a change while reading is seen on the next load
+                long length = source.file.length();
+                if (source.hash != null && lastModified == source.lastModified && length == source.length){
+                    return false; //not even read
+                }
+                content = readAll(new FileInputStream(source.file));
+                source.lastModified = lastModified;
+                source.length = length;
+            }
+        } catch (IOException e){ //may be passing (locked, being replaced): keep what was read before, try again on the next load
+            System.out.println("Failed to read quest catalog source " + source.name + ", keeping its previous quests");
+            e.printStackTrace();
+            return false;
+        }
+
+        String hash = hash(content);
+        if (hash.equals(source.hash)) return false; //touched, but the same content
+
+        try {
+            parse(source, new String(content, StandardCharsets.UTF_8));
+        } catch (ParseException | ClassCastException | NullPointerException | NumberFormatException e){
+            //e.g. caught halfway through being saved: keep the previous records (and hash), parsed again once the file changes
+            System.out.println("Failed to parse quest catalog source " + source.name + ", keeping its previous quests");
+            e.printStackTrace();
+            return false;
+        }
+        source.hash = hash;
+        return true;
+    }
+
+    //forget the records of a source that is gone. Whether it had any (it changed)
+    private boolean clear(Source source){
+        boolean had = source.hash != null;
+        source.hash = null;
+        source.lastModified = -1;
+        source.length = -1;
+        source.records = new Record[]{};
+        source.invalid = 0;
+        return had;
+    }
+
+    /**
+     * Read all records of a source, in the format of MarkQuests.json (see ResourceManager.loadAllQuests).
+     */
+    private void parse(Source source, String json) throws ParseException {
+        ArrayList<Record> records = new ArrayList<>();
+        int invalid = 0;
+        HashMap<String, Record> unchanged = new HashMap<>(); //hash ; record of the previous parse, reused as is
+        for (Record r : source.records) unchanged.put(r.hash, r);
+
+        for (Object o : (JSONArray) new JSONParser().parse(json)){
+            JSONObject j = (JSONObject) o;
+            String name = (String) j.get("name");
+            String type = (String) j.get("type");
+            JSONArray markReqs = (JSONArray) j.get("req");
+            String[] dungeons = new String[markReqs.size()];
+            int[] amounts = new int[markReqs.size()];
+            StringBuilder canonical = new StringBuilder(type).append('\n').append(name);
+            for (int k = 0; k < markReqs.size(); k++){
+                JSONObject requirement = (JSONObject) markReqs.get(k);
+                dungeons[k] = (String) requirement.get("dungeon");
+                amounts[k] = Integer.parseInt((String) requirement.get("amount"));
+                canonical.append('\n').append(dungeons[k]).append('x').append(amounts[k]);
+            }
+
+            String hash = hash(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            Record before = unchanged.get(hash);
+            if (before != null){ //checked on an earlier parse
+                records.add(before);
+                continue;
+            }
+            try {
+                resourceManager.assertValidType(type);
+                for (String d : dungeons) resourceManager.assertValidDungeon(d);
+            } catch (IllegalArgumentException e){
+                System.out.println("Skipping quest " + name + " of " + source.name + ": " + e.getMessage());
+                invalid++;
+                continue;
+            }
+            records.add(new Record(type, name, dungeons, amounts, hash));
+        }
+        source.records = records.toArray(new Record[]{});
+        source.invalid = invalid;
+    }
+
+    /**
+     * @return SHA-256 of the bytes, in hex
+     */
+    private static String hash(byte[] bytes){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException("SHA-256 is available on every Java platform", e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest(bytes)){
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        if (is == null) throw new FileNotFoundException(BUNDLED);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        try {
+            while ((length = is.read(buffer)) != -1){
+                result.write(buffer, 0, length);
+            }
+        } finally {
+            is.close();
+        }
+        return result.toByteArray();
+    }
+}
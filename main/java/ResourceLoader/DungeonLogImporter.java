@@ -0,0 +1,140 @@
+package ResourceLoader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads dungeon clears from game log files, see DungeonLogParser for the log format.
+ *
+ * A log is either a single file, or a directory of log files (every regular file in it, by name).
+ *
+ * backfill reads logs once, memory-mapped in large windows.
+ * tail follows logs as they grow, reading only the bytes added since the last poll, on a background thread.
+ *
+ * Clears are handed to a consumer in batches (dungeon ; amount of clears): at most one per mapped window
+ * or per poll, so that whoever applies them (e.g. the GUI) updates once per batch rather than once per line.
+ */
+public class DungeonLogImporter {
+
+    private static final long MAP_WINDOW = 64L * 1024 * 1024; //bytes mapped at once when backfilling
+    private static final int TAIL_BUFFER = 64 * 1024; //bytes read at once when tailing
+
+    private DungeonLogImporter(){
+        //static methods only
+    }
+
+    /**
+     * Read logs from start to end, once.
+     *
+     * @param log a log file, or a directory of log files
+     * @param batches receives the clears read, one batch per mapped window (not called if a window has none)
+     * @return the parser used, holding the amount of lines read and skipped
+     * @throws IOException if a log could not be read
+     */
+    public static DungeonLogParser backfill(Path log, Consumer<Map<String, Integer>> batches) throws IOException {
+        DungeonLogParser parser = new DungeonLogParser(ResourceManager.getInstance().getDungeons());
+        for (Path file : logFiles(log)){
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                long size = channel.size();
+                for (long start = 0; start < size; start += MAP_WINDOW){
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_WINDOW, size - start));
+                    parser.feed(window); //a line split over two windows is continued by the parser
+                    if (parser.hasBatch()) batches.accept(parser.drainBatch());
+                }
+            }
+            parser.finish(); //last line of a file may lack a newline
+        }
+        if (parser.hasBatch()) batches.accept(parser.drainBatch());
+        return parser;
+    }
+
+    /**
+     * Follow logs as they grow, until the returned handle is closed.
+     *
+     * Only bytes written after this call are read: use backfill first to also read what is there already.
+     * Files added to a log directory later are read from their start. A file that shrinks (log rotated in place) is read from its start again.
+     *
+     * @param log a log file, or a directory of log files
+     * @param pollMillis time between checks for new bytes
+     * @param batches receives the clears read, at most one batch per poll, on the tailing thread
+     * @return handle stopping the tailing thread when closed
+     * @throws IOException if the log could not be listed
+     */
+    public static Closeable tail(Path log, long pollMillis, Consumer<Map<String, Integer>> batches) throws IOException {
+        HashMap<Path, Long> positions = new HashMap<>(); //file ; bytes read so far
+        HashMap<Path, DungeonLogParser> parsers = new HashMap<>(); //file ; parser holding its unfinished line
+        for (Path file : logFiles(log)){
+            positions.put(file, Files.size(file));
+        }
+
+        Thread thread = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TAIL_BUFFER);
+            HashMap<String, Integer> batch = new HashMap<>();
+            while (! Thread.currentThread().isInterrupted()){
+                try {
+                    for (Path file : logFiles(log)){
+                        DungeonLogParser parser = parsers.computeIfAbsent(file, f -> new DungeonLogParser(ResourceManager.getInstance().getDungeons()));
+                        long position = positions.getOrDefault(file, 0L);
+                        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                            if (channel.size() < position) position = 0; //truncated: rotated in place
+                            channel.position(position);
+                            while (channel.read(buffer) > 0){
+                                buffer.flip();
+                                parser.feed(buffer);
+                                buffer.clear();
+                            }
+                            positions.put(file, channel.position());
+                        }
+                        parser.drainBatch().forEach((dungeon, clears) -> batch.merge(dungeon, clears, Integer::sum));
+                    }
+                    if (! batch.isEmpty()){
+                        batches.accept(Collections.unmodifiableMap(new HashMap<>(batch)));
+                        batch.clear();
+                    }
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException e){
+                    return; //closed
+                } catch (IOException e){ //file deleted or unreadable meanwhile, try again next poll
+                    System.out.println("Could not read log " + log + ": " + e.getMessage());
+                    try {
+                        Thread.sleep(pollMillis);
+                    } catch (InterruptedException e2){
+                        return;
+                    }
+                }
+            }
+        }, "DungeonLogTail");
+        thread.setDaemon(true); //do not keep the program running after the GUI is closed
+        thread.start();
+
+        return thread::interrupt;
+    }
+
+    /**
+     * @return the log itself if it is a file, or all regular files in it by name if it is a directory
+     */
+    private static ArrayList<Path> logFiles(Path log) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        if (Files.isDirectory(log)){
+            try (Stream<Path> list = Files.list(log)){
+                files.addAll(list.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+            }
+        } else {
+            files.add(log);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,183 @@
+package ResourceLoader;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts dungeon clears in a game log, fed as raw bytes.
+ *
+ * Log format: one cleared dungeon per line, the dungeon being the last field of the line.
+ * Fields are separated by tabs, commas, colons, semicolons or '|', so all of these count a clear of Puppet Master's Theatre:
+ *
+ * PuppetMaster'sTheatre
+ * 2019-08-02 21:14:03: Cleared: Puppet Master's Theatre
+ * 1564773243,player,puppet masters theatre
+ *
+ * Dungeon names are compared on their letters and digits only, ignoring case, against the dungeon registry
+ * (MarkQuestDungeons.json). Lines whose last field is no known dungeon are skipped.
+ *
+ * Parsing works on bytes without creating a String per line, so it can be fed straight from
+ * a (memory-mapped) file buffer. Lines may be split over several feed calls.
+ * Not thread-safe: feed one parser from one thread at a time.
+ */
+public class DungeonLogParser {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String[] dungeons; //dungeon id ; name as in the registry
+    private final long[] tableHashes; //open addressing table: hash of a normalized dungeon name
+    private final int[] tableIds; //same index as tableHashes: dungeon id, -1 if the slot is empty
+    private final int tableMask;
+
+    private final int[] clears; //dungeon id ; clears counted since the last drainBatch
+    private boolean anyClears = false;
+    private long lines = 0;
+    private long skipped = 0;
+
+    //state of the line being parsed, kept between feed calls
+    private long fieldHash = FNV_OFFSET; //hash of the normalized current field
+    private int fieldLength = 0; //amount of letters and digits in the current field
+    private boolean lineStarted = false;
+
+    /**
+     * @param dungeons all known dungeon names, see ResourceManager.getDungeons
+     */
+    public DungeonLogParser(String[] dungeons){
+        this.dungeons = dungeons.clone();
+        this.clears = new int[dungeons.length];
+
+        int size = Integer.highestOneBit(Math.max(16, dungeons.length * 4) - 1) << 1; //power of two, at most 1/4 full
+        tableHashes = new long[size];
+        tableIds = new int[size];
+        tableMask = size - 1;
+        Arrays.fill(tableIds, -1);
+
+        for (int id = 0; id < dungeons.length; id++){
+            long hash = FNV_OFFSET;
+            int length = 0;
+            for (int i = 0; i < dungeons[id].length(); i++){
+                char c = dungeons[id].charAt(i);
+                if (c < 128 && Character.isLetterOrDigit(c)){
+                    hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+                    length++;
+                }
+            }
+            if (length == 0) continue;
+
+            int slot = (int) (hash ^ (hash >>> 32)) & tableMask;
+            while (tableIds[slot] != -1){
+                if (tableHashes[slot] == hash){
+                    throw new IllegalArgumentException("Dungeons " + dungeons[tableIds[slot]] + " and " + dungeons[id] + " can not be told apart in logs!");
+                }
+                slot = (slot + 1) & tableMask;
+            }
+            tableHashes[slot] = hash;
+            tableIds[slot] = id;
+        }
+    }
+
+    /**
+     * Parse all bytes remaining in a buffer, from its position to its limit. Moves the position to the limit.
+     *
+     * A line not finished at the end of the buffer is continued by the next feed call.
+     *
+     * @param buffer log bytes (ASCII or UTF-8)
+     */
+    public void feed(ByteBuffer buffer){
+        int end = buffer.limit();
+        for (int i = buffer.position(); i < end; i++){
+            byte b = buffer.get(i); //absolute get: no position update per byte
+            if (b == '\n'){
+                endLine();
+            } else if (b == '\t' || b == ',' || b == ':' || b == ';' || b == '|'){
+                fieldHash = FNV_OFFSET; //dungeon is the last field, start over
+                fieldLength = 0;
+                lineStarted = true;
+            } else if (b >= 'a' && b <= 'z' || b >= '0' && b <= '9'){
+                fieldHash = (fieldHash ^ b) * FNV_PRIME;
+                fieldLength++;
+                lineStarted = true;
+            } else if (b >= 'A' && b <= 'Z'){
+                fieldHash = (fieldHash ^ (b + ('a' - 'A'))) * FNV_PRIME;
+                fieldLength++;
+                lineStarted = true;
+            } else if (b != '\r'){
+                lineStarted = true; //spaces, apostrophes, non-ASCII: part of the line, not of the name
+            }
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * End of the log: count the last line if it did not end in a newline.
+     */
+    public void finish(){
+        if (lineStarted) endLine();
+    }
+
+    private void endLine(){
+        if (lineStarted){
+            lines++;
+            int id = fieldLength == 0 ? -1 : lookup(fieldHash);
+            if (id == -1){
+                skipped++;
+            } else {
+                clears[id]++;
+                anyClears = true;
+            }
+        }
+        fieldHash = FNV_OFFSET;
+        fieldLength = 0;
+        lineStarted = false;
+    }
+
+    private int lookup(long hash){
+        int slot = (int) (hash ^ (hash >>> 32)) & tableMask;
+        while (tableIds[slot] != -1){
+            if (tableHashes[slot] == hash) return tableIds[slot];
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether any clears were counted since the last drainBatch
+     */
+    public boolean hasBatch(){
+        return anyClears;
+    }
+
+    /**
+     * Take the clears counted since the last call, resetting them.
+     *
+     * @return mapping of dungeon (as in the registry) to amount of clears, only dungeons cleared at least once
+     */
+    public Map<String, Integer> drainBatch(){
+        LinkedHashMap<String, Integer> batch = new LinkedHashMap<>();
+        for (int id = 0; id < clears.length; id++){
+            if (clears[id] > 0){
+                batch.put(dungeons[id], clears[id]);
+                clears[id] = 0;
+            }
+        }
+        anyClears = false;
+        return batch;
+    }
+
+    /**
+     * @return amount of lines parsed so far
+     */
+    public long getLines(){
+        return lines;
+    }
+
+    /**
+     * @return amount of lines parsed so far that named no known dungeon
+     */
+    public long getSkipped(){
+        return skipped;
+    }
+}
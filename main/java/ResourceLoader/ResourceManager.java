@@ -1,19 +1,17 @@
 package ResourceLoader;
 
-import MarkData.MarkQuest;
-import MarkData.MarkRequirement;
-import MarkData.QuestLibrary;
+import MarkData.QuestTable;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.net.URL;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class handles reading files from the resources folder, and returning them as meaningful types.
@@ -24,20 +22,32 @@ public class ResourceManager {
 
     private static ResourceManager singleton = new ResourceManager();
 
-    private final BufferedImage markSpriteSheet; //the spritesheet, held in memory to reduce load times
-    private final HashMap<String, Integer> questMapping; //Mapping of quest types (Epic, Scout) to their 'tier'
-    private final HashMap<String, Integer> spriteMapping; //Mapping of dungeon names to their mark on the spriteSheet. Also uses Keyset for list of all dungeons!
+    private static final int SPRITE_CACHE_ROWS = 64; //rows of mark sprites kept decoded, see SpriteSheetStore
 
-    private boolean loadedQuests = false; //does not permit use of loadAllQuests more than once, since QuestLibrary (singleton) will be holding it.
+    private final SpriteSheetStore markSprites; //the spritesheet, decoded a row at a time when sprites are needed
+    private final CatalogMerger catalog; //MarkQuests.json and extra catalog sources, merged
+    //both mappings are filled on initialisation and never changed afterwards (unmodifiable), so they are safe to read from any thread
+    private final Map<String, Integer> questMapping; //Mapping of quest types (Epic, Scout) to their 'tier'
+    private final Map<String, Integer> spriteMapping; //Mapping of dungeon names to their mark on the spriteSheet. Also uses Keyset for list of all dungeons!
+
+    //system property holding the path of a memory-mapped quest catalog file, see loadAllQuests. Optional.
+    public static final String CATALOG_PROPERTY = "marktracker.catalog";
+    //system property holding a directory of extra quest name tables (MarkQuestNames_<locale>.json), see loadLocalizedNames. Optional.
+    public static final String NAMES_DIR_PROPERTY = "marktracker.names";
+    private static final String LOCALE_PATTERN = "[A-Za-z]{2,8}([_-][A-Za-z0-9]{1,8})*"; //e.g. de, pt_BR, zh-Hant
+
+    private volatile boolean mergedCatalog = false; //whether the quests loaded came from the catalog sources (not a mapped catalog file)
+    private final AtomicBoolean loadedQuests = new AtomicBoolean(false); //does not permit use of loadAllQuests more than once, since QuestLibrary (singleton) will be holding it.
 
     private ResourceManager() {
-        markSpriteSheet = loadSpritesheet("MarkRenders.png");
+        markSprites = new SpriteSheetStore("MarkRenders.png", 40, 5, SPRITE_CACHE_ROWS); //40x40 sprites, 5 per row
+        catalog = new CatalogMerger(this);
 
         JSONArray questTiers = readResourceAsJSONArray("MarkQuestTypes.json");
         JSONArray spritePositions = readResourceAsJSONArray("MarkQuestDungeons.json");
 
-        questMapping = mapJSONArray(questTiers, "type", "tier");
-        spriteMapping = mapJSONArray(spritePositions, "dungeon", "sheetPos");
+        questMapping = Collections.unmodifiableMap(mapJSONArray(questTiers, "type", "tier"));
+        spriteMapping = Collections.unmodifiableMap(mapJSONArray(spritePositions, "dungeon", "sheetPos"));
     }
 
     public static ResourceManager getInstance(){
@@ -66,9 +76,9 @@ public class ResourceManager {
     }
 
     /**
-     * Loads ArrayList of all Tinkerer Quests, then converts to Array.
+     * Loads all Tinkerer Quests into a QuestTable.
      *
-     * Reads from JSON holding all quest data (MarkQuests.json)
+     * Reads from JSON holding all quest data (MarkQuests.json), merged with the extra catalog sources if any (see CatalogMerger)
      *
      * Also checks validity of Dungeons & Quest types.
      *
@@ -76,42 +86,141 @@ public class ResourceManager {
      * (Want QuestLibrary class to hold result instead of ResourceManager)
      * Use QuestLibrary.getInstance().getAllQuests(); instead. This method reads from file.
      *
+     * If the CATALOG_PROPERTY system property is set, quests are read from that memory-mapped catalog file instead,
+     * see loadMappedCatalog.
+     *
      * @return all Quests currently available at the Tinkerer
      */
-    public MarkQuest[] loadAllQuests() {
-        if (loadedQuests){
+    public QuestTable loadAllQuests() {
+        if (! loadedQuests.compareAndSet(false, true)){ //only the first caller, even if called from several threads at once
             throw new IllegalArgumentException("Attempted to load quests from file after initialisation! use QuestLibrary.getAllQuests instead.");
         }
-        loadedQuests = true;
-        JSONArray questData = readResourceAsJSONArray("MarkQuests.json");
-        ArrayList<MarkQuest> tempQuestList = new ArrayList<>();
-
-        String type;
-        String name;
-        MarkRequirement[] reqs;
-        for (Object aQuestData : questData) {
-            JSONObject j = (JSONObject) aQuestData; //j is a MarkQuest in JSON format
-
-            name = (String) j.get("name");
-            type = (String) j.get("type");
-            assertValidType(type);
-
-            JSONArray markReqs = (JSONArray) j.get("req");
-            reqs = new MarkRequirement[markReqs.size()];
-
-            for (int k = 0; k < markReqs.size(); k++) {
-                JSONObject requirement = (JSONObject) markReqs.get(k);
-                String dungeon = (String) requirement.get("dungeon");
-                assertValidDungeon(dungeon);
-                int amount = Integer.parseInt((String) requirement.get("amount")); //simpleJSON library hates ints, so I store numbers as String instead. Fight me.
-
-                reqs[k] = QuestLibrary.createMarkRequirement(dungeon, amount);
+
+        String catalogPath = System.getProperty(CATALOG_PROPERTY);
+        if (catalogPath != null){
+            try {
+                return loadMappedCatalog(new File(catalogPath));
+            } catch (IOException | RuntimeException e){ //unreadable or corrupt file, unknown type or dungeon in it
+                e.printStackTrace();
+                System.out.println("Could not use quest catalog " + catalogPath + ", loading quests from resources instead");
+            }
+        }
+        mergedCatalog = true;
+        return loadQuestsFromJSON();
+    }
+
+    /**
+     * Open the quest catalog file read-only and memory-mapped, creating it from MarkQuests.json first if it does not exist.
+     *
+     * Any number of MarkTracker processes can map the same file, sharing one copy of all quest data in memory
+     * instead of each holding their own on the heap.
+     *
+     * The file is written again if it was written by another version, or from catalog sources
+     * (MarkQuests.json and the extra sources, see CatalogMerger) that changed since (see QuestTable.isCatalogCurrent).
+     * Checking reads and hashes the sources, but only parses them if the file is written again.
+     *
+     * @param catalog the catalog file
+     * @return all Quests in the catalog
+     * @throws IOException if the catalog could not be created or read
+     */
+    private QuestTable loadMappedCatalog(File catalog) throws IOException {
+        String sourceHash = this.catalog.hashSources(); //before loading: sources changing meanwhile make the file outdated, never wrongly current
+        if (! catalog.exists()){
+            System.out.println("creating quest catalog " + catalog);
+            QuestTable.writeCatalog(loadQuestsFromJSON(), sourceHash, catalog);
+        } else if (! QuestTable.isCatalogCurrent(catalog, sourceHash)){ //processes still mapping the old file keep it, see writeCatalog
+            System.out.println("quest catalog " + catalog + " is outdated (other version or changed sources), creating it again");
+            QuestTable.writeCatalog(loadQuestsFromJSON(), sourceHash, catalog);
+        }
+        System.out.println("mapping quest catalog " + catalog);
+        QuestTable table = QuestTable.mapCatalog(catalog);
+
+        //the catalog may have been written by another version, check it the same way as MarkQuests.json
+        for (int t = 0; t < table.getTypeCount(); t++){
+            assertValidType(table.getTypeName(t));
+        }
+        for (int d = 0; d < table.getDungeonCount(); d++){
+            assertValidDungeon(table.getDungeonName(d));
+        }
+        return table;
+    }
+
+    /**
+     * Helper method of loadAllQuests, reads all quests from MarkQuests.json and the extra catalog sources, see CatalogMerger
+     * @return all Quests of all sources, merged
+     */
+    private QuestTable loadQuestsFromJSON() {
+        CatalogMerger.Report report = catalog.load();
+        System.out.println(report);
+        return report.getTable();
+    }
+
+    /**
+     * Read the catalog sources again, see CatalogMerger.load. Only changed sources are parsed.
+     *
+     * Use QuestLibrary.reloadCatalog to replace the library as well.
+     *
+     * @return what changed, and the merged catalog
+     */
+    public CatalogMerger.Report reloadCatalog(){
+        return catalog.load();
+    }
+
+    /**
+     * @return whether reloading the catalog can change the quests: they were loaded from the catalog sources,
+     * and there are sources besides MarkQuests.json (see CatalogMerger)
+     */
+    public boolean canReloadCatalog(){
+        return mergedCatalog && catalog.hasExternalSources();
+    }
+
+    /**
+     * Read the quest name table of a locale: MarkQuestNames_<locale>.json, from the NAMES_DIR_PROPERTY directory
+     * if it has one, from resources otherwise.
+     *
+     * A name table is a JSON array of {"name": English quest name, "localized": name in that locale}.
+     * Tables are optional, quests missing from a table keep their English name.
+     *
+     * @param locale a locale, e.g. "de" or "pt_BR"
+     * @return English quest name ; localized name. null if there is no table for the locale (or it could not be read)
+     * @throws IllegalArgumentException if the locale is not a valid locale name
+     */
+    public Map<String, String> loadLocalizedNames(String locale){
+        if (! isValidLocale(locale)) throw new IllegalArgumentException(locale + " is not a valid locale!");
+        String fileName = "MarkQuestNames_" + locale + ".json";
+
+        String json = null;
+        try {
+            String namesDir = System.getProperty(NAMES_DIR_PROPERTY);
+            File file = namesDir == null ? null : new File(namesDir, fileName);
+            if (file != null && file.isFile()){
+                json = readInputStream(new FileInputStream(file));
+            } else {
+                InputStream is = this.getClass().getResourceAsStream("/ResourceLoader/" + fileName);
+                if (is != null) json = readInputStream(is);
             }
-            //We now have all the data needed to make a MarkQuest
-            tempQuestList.add(QuestLibrary.createMarkQuest(type, name, reqs));
+            if (json == null) return null; //no table for this locale
+
+            System.out.println("loading names " + fileName);
+            HashMap<String, String> toReturn = new HashMap<>();
+            for (Object o : (JSONArray) new JSONParser().parse(json)){
+                JSONObject j = (JSONObject) o;
+                toReturn.put((String) j.get("name"), (String) j.get("localized"));
+            }
+            return toReturn;
+        } catch (IOException | ParseException | ClassCastException e){
+            System.out.println("Failed to load quest names " + fileName);
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        return tempQuestList.toArray(new MarkQuest[]{});
+    /**
+     * @param locale a locale name
+     * @return whether it is a valid locale name, e.g. "de", "pt_BR" or "zh-Hant". Does not mean it has a name table.
+     */
+    public static boolean isValidLocale(String locale){
+        return locale.matches(LOCALE_PATTERN);
     }
 
     /**
@@ -130,11 +239,7 @@ public class ResourceManager {
      * @throws IllegalArgumentException if parameter is not in list
      */
     public void assertValidType(String a){
-        boolean isValid = false;
-        for (String b : questMapping.keySet()){
-            if (a.equals(b)) isValid = true;
-        }
-        if (!isValid) throw new IllegalArgumentException("Type " + a + " is not a supported Quest type!");
+        if (! questMapping.containsKey(a)) throw new IllegalArgumentException("Type " + a + " is not a supported Quest type!");
     }
 
     public String[] getTypes(){
@@ -147,11 +252,7 @@ public class ResourceManager {
      * @throws IllegalArgumentException if parameter is not in list
      */
     public void assertValidDungeon(String a) {
-        boolean isValid = false;
-        for (String b : spriteMapping.keySet()){
-            if (a.equals(b)) isValid = true;
-        }
-        if (!isValid) throw new IllegalArgumentException("Dungeon " + a + " is not a supported Dungeon!");
+        if (! spriteMapping.containsKey(a)) throw new IllegalArgumentException("Dungeon " + a + " is not a supported Dungeon!");
     }
 
     public String[] getDungeons(){
@@ -159,33 +260,17 @@ public class ResourceManager {
     }
 
     /**
-     * Get a specific sprite by way of sub-image.
+     * Get a specific sprite from the sheet.
      * Sprites are indexed from 0 until ?,
      *
      * There are 5 sprites of 40x40 (RotMG Renders size of 8x8) per row
+     * (height is always unlimited, " just add more space " )
      *
      * @param spriteNum the index of the sprite
-     * @return the subimage that is the sprite
+     * @return the sprite
      */
     private BufferedImage getSprite(int spriteNum){
-        final int spriteWidth = 40; //a sprite is 40px wide
-        final int spriteHeight = 40; //a sprite is 40px high
-        final int sheetWidth = 5; //the sheet supports 5 sprites per row
-        //(height is always unlimited, " just add more space " )
-
-        int spriteX = spriteWidth * (spriteNum % sheetWidth);
-        int spriteY = spriteHeight * (spriteNum / sheetWidth);
-
-        BufferedImage sheet = getMarkSheet();
-        return sheet.getSubimage(spriteX, spriteY, spriteWidth, spriteHeight);
-    }
-
-    /**
-     * Get the mark sheet from memory rather than loading the file
-     * @return BufferedImage of MarkRenders.png
-     */
-    private BufferedImage getMarkSheet() {
-        return markSpriteSheet;
+        return markSprites.getSprite(spriteNum);
     }
 
     /**
@@ -214,30 +299,6 @@ public class ResourceManager {
         return arr;
     }
 
-    /**
-     * Load a resource, read it as a " spritesheet"
-     *
-     * different from "getters" of spritesheets: getters return an image held in memory,
-     * So that loading times for many lonesome sprites need not obtain the entire sheet every load.
-     *
-     * @param resourceName the name of the resource
-     * @return a BufferedImage of the spritesheet
-     */
-    @SuppressWarnings("SameParameterValue") //currently always MarkSheet.png, open to extension
-    private BufferedImage loadSpritesheet(String resourceName){
-        System.out.println("loading " + resourceName);
-        URL url = ResourceManager.class.getResource(resourceName);
-        BufferedImage sheet = null;
-        try {
-            sheet = ImageIO.read(url);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Could not read spritesheet" + resourceName + "at: \n" + url);
-        }
-        assert sheet != null;
-        return sheet;
-    }
-
     /**
      * Helper method of readResourceAsJSONArray
      *
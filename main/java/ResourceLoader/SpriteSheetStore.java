@@ -0,0 +1,134 @@
+package ResourceLoader;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out the sprites of a sprite sheet without ever holding the whole sheet in memory.
+ *
+ * The sheet is a grid of equally sized sprites, a fixed amount per row, as many rows as needed.
+ * A sprite that is asked for is decoded together with the rest of its row only (ImageReadParam.setSourceRegion),
+ * and its row is kept in a cache of at most maxRows rows, least recently used first out.
+ * Cached rows are held softly, so they are also dropped when memory runs low, and decoded again when needed.
+ *
+ * Nothing is decoded on creation: startup time and memory do not depend on the size of the sheet.
+ * Thread-safe.
+ */
+class SpriteSheetStore {
+
+    private final String resourceName; //sheet, relative to this class
+    private final int spriteSize; //sprites are square, this many px wide and high
+    private final int spritesPerRow;
+
+    private final LinkedHashMap<Integer, SoftReference<BufferedImage[]>> rows; //row of sprites ; its sprites, least recently used first
+    private int sheetHeight = -1; //px, read from the header on first use
+
+    private int decodes = 0; //rows decoded, for statistics
+
+    /**
+     * @param resourceName the sheet (PNG), relative to this class
+     * @param spriteSize width and height of a sprite in px
+     * @param spritesPerRow the amount of sprites in a row of the sheet
+     * @param maxRows the amount of rows of sprites kept decoded at most
+     */
+    SpriteSheetStore(String resourceName, int spriteSize, int spritesPerRow, int maxRows){
+        this.resourceName = resourceName;
+        this.spriteSize = spriteSize;
+        this.spritesPerRow = spritesPerRow;
+        this.rows = new LinkedHashMap<Integer, SoftReference<BufferedImage[]>>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, SoftReference<BufferedImage[]>> eldest) {
+                return size() > maxRows;
+            }
+        };
+    }
+
+    /**
+     * Get a sprite by its index: sprites are numbered left to right, then top to bottom, starting at 0.
+     *
+     * @param spriteNum the index of the sprite
+     * @return the sprite, an image of its own (not a subimage of the sheet), in TYPE_INT_ARGB_PRE
+     * @throws IllegalArgumentException if the sheet has no sprite at that index
+     */
+    synchronized BufferedImage getSprite(int spriteNum){
+        if (spriteNum < 0) throw new IllegalArgumentException("Sprite " + spriteNum + " is not on the sheet " + resourceName + "!");
+        int row = spriteNum / spritesPerRow;
+
+        SoftReference<BufferedImage[]> ref = rows.get(row);
+        BufferedImage[] sprites = ref == null ? null : ref.get(); //null: never decoded, evicted, or collected
+        if (sprites == null){
+            sprites = decodeRow(row);
+            rows.put(row, new SoftReference<>(sprites));
+        }
+        return sprites[spriteNum % spritesPerRow];
+    }
+
+    /**
+     * @return the amount of rows decoded so far, a row decoded again after eviction counts again
+     */
+    synchronized int getDecodeCount(){
+        return decodes;
+    }
+
+    /**
+     * Decode a single row of sprites from the sheet, and cut it into sprites.
+     */
+    private BufferedImage[] decodeRow(int row){
+        try (InputStream in = ResourceManager.class.getResourceAsStream(resourceName);
+             ImageInputStream stream = in == null ? null : ImageIO.createImageInputStream(in)){
+            if (stream == null) throw new IOException("Could not find spritesheet " + resourceName);
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (! readers.hasNext()) throw new IOException("No reader for spritesheet " + resourceName);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true); //forward only, no metadata: nothing kept that is not needed
+                if (sheetHeight == -1) sheetHeight = reader.getHeight(0); //header only
+                if ((row + 1) * spriteSize > sheetHeight){
+                    throw new IllegalArgumentException("Row " + row + " is not on the sheet " + resourceName + "!");
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, row * spriteSize, spriteSize * spritesPerRow, spriteSize));
+                BufferedImage strip = reader.read(0, param);
+                decodes++;
+
+                BufferedImage[] sprites = new BufferedImage[spritesPerRow];
+                for (int i = 0; i < spritesPerRow; i++){
+                    sprites[i] = toDrawableFormat(strip, i * spriteSize);
+                }
+                return sprites;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+            throw new IllegalStateException("Could not read row " + row + " of spritesheet " + resourceName, e);
+        }
+    }
+
+    /**
+     * Copy a sprite out of a decoded row, into the pixel format Java2D draws fastest without a display
+     * (premultiplied ARGB ints).
+     *
+     * Whatever type the reader returns (often indexed or byte-ordered for PNG), it would be converted on every draw.
+     * See GUI.SpriteRenderer for the conversion to the format of a specific display.
+     */
+    private BufferedImage toDrawableFormat(BufferedImage strip, int x){
+        BufferedImage sprite = new BufferedImage(spriteSize, spriteSize, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = sprite.createGraphics();
+        g.drawImage(strip, 0, 0, spriteSize, spriteSize, x, 0, x + spriteSize, spriteSize, null);
+        g.dispose();
+        return sprite;
+    }
+}